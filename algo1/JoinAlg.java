@@ -119,13 +119,15 @@ package algo1;
 
 
 
+
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
-import table.HashIterator;
-import table.JoinIterator;
+import table.AggregateResult;
+import table.ExplainAnalyze;
+import table.JoinCounters;
 import table.Join_Utility;
-import table.SortMergeJoinIterator;
-import table.StartIterator;
 import table.Table;
 import table.TableIterator;
 
@@ -137,10 +139,34 @@ public class JoinAlg {
 	private final double[][] 	aggregates;
 	private final int[][] 		keysToAggregateOn;
 	private final double[] 		keyValues;
+	private final double[]      sums;      //SUM(X) of each key, only computed for runWithSums()
+	private       long          count;     //Rows of the join
+	private final boolean       weighted;  //Does some table have weighted rows, see Table.deduplicate()
 	
 	private final TableIterator[] iterators;
 	
+	/* Prefix mode, see runIncremental(). The pairs of keys to aggregate are split by where their keys first appear:
+	 * both before the last table (prefixPairs), one before and one in it (mixedPairs, the earlier key first), or both in it
+	 * (lastPairs). While the last iterator runs over the rows matching the same prefix, only what involves its keys is
+	 * accumulated, and the accumulators are folded into the aggregates once the prefix changes
+	 */
+	private final boolean       incremental;
+	private       int[]         prefixPairs, mixedPairs, lastPairs; //Flattened pairs of keys
+	private       int[]         lastKeys;     //Keys appearing first in the last table
+	private       int[]         prefixKeys;   //The other keys
+	private       double[]      lastSums;     //Weighted SUM(X) over the run of each key of the last table
+	private       double[]      lastProducts; //Weighted SUM(XY) over the run of each pair in lastPairs
+	private       double        runWeight;    //Rows of the last table joined with the current prefix, or their weight
+	
 	private JoinAlg(Table[] init_tables, String[][] strAggs){
+		this(init_tables, strAggs, false);
+	}
+	
+	private JoinAlg(Table[] init_tables, String[][] strAggs, boolean withSums){
+		this(init_tables, strAggs, withSums, false);
+	}
+	
+	private JoinAlg(Table[] init_tables, String[][] strAggs, boolean withSums, boolean incremental){
 		
 		this.data       = new Join_Utility(init_tables, strAggs);
 		this.keysToAggregateOn  = data.getKeysToAggregateOn();
@@ -150,32 +176,62 @@ public class JoinAlg {
 		this.totalKeys   = data.getAttributes().size();
 		this.aggregates  = new double[totalKeys][totalKeys];
 		this.keyValues   = new double[totalKeys];
+		this.sums        = withSums ? new double[totalKeys] : null;
 		setUpIterators();
-
+		
+		boolean weighted = false;
+		for(Table table : tables)
+			weighted |= table.isWeighted();
+		this.weighted = weighted;
+		
+		this.incremental = incremental && tables.length > 1;
+		if(this.incremental)
+			preparePrefixMode();
 	
 	}
 	
-	private void setUpIterators(){
+	private void preparePrefixMode(){
 		
-		iterators[0] = new StartIterator(data, keyValues);
-		int[] firstJoinKeys = null;
+		lastKeys     = data.getFirstAppearingKeys(tables.length - 1);
+		lastSums     = new double[totalKeys];
 		
-		if(tables.length > 0){
-			iterators[1] = new SortMergeJoinIterator(data, 1,keyValues);
-			firstJoinKeys = data.getJoinKeys()[1];
-		}
+		boolean[] inLast = new boolean[totalKeys];
+		for(int key : lastKeys)
+			inLast[key] = true;
 		
-		int it = 2;
+		prefixKeys = new int[totalKeys - lastKeys.length];
+		for(int key = 0, p = 0; key < totalKeys; ++key)
+			if(!inLast[key])
+				prefixKeys[p++] = key;
 		
-		while(it < tables.length && Arrays.equals(data.getJoinKeys()[it], firstJoinKeys)){
-				iterators[it] = new SortMergeJoinIterator(data, it, keyValues);
-				++it;
-		}
+		List<int[]> pairs = new ArrayList<int[]>();
+		if(keysToAggregateOn != null)
+			pairs.addAll(Arrays.asList(keysToAggregateOn));
+		else
+			for(int k1 = 0; k1 < totalKeys; ++k1)
+				for(int k2 = k1; k2 < totalKeys; ++k2)
+					pairs.add(new int[]{k1, k2});
+		
+		int[][] split = new int[3][2*pairs.size()];
+		int[]   sizes = new int[3];
 		
-		while(it < tables.length){
-			iterators[it] = new JoinIterator(data, it, keyValues);
-			++it;
+		for(int[] pair : pairs){
+			int kind = (inLast[pair[0]] ? 1 : 0) + (inLast[pair[1]] ? 1 : 0); //0 prefix, 1 mixed, 2 last
+			boolean swap = kind == 1 && inLast[pair[0]];
+			split[kind][sizes[kind]++] = swap ? pair[1] : pair[0];
+			split[kind][sizes[kind]++] = swap ? pair[0] : pair[1];
 		}
+		
+		prefixPairs  = Arrays.copyOf(split[0], sizes[0]);
+		mixedPairs   = Arrays.copyOf(split[1], sizes[1]);
+		lastPairs    = Arrays.copyOf(split[2], sizes[2]);
+		lastProducts = new double[lastPairs.length/2];
+	}
+	
+	private void setUpIterators(){
+		
+		for(int it = 0; it < tables.length; ++it)
+			iterators[it] = data.makeIterator(it, keyValues);
 	
 	}
 	
@@ -205,19 +261,32 @@ public class JoinAlg {
 			if(it.hasNext()){
 				it.increment();
 				if(curr+1 == iterators.length) //Is this the last iterator, then compute aggregates
-					computeAggregates();
+					if(incremental) accumulateRun(); else computeAggregates();
 				else
 					iterators[++curr].synchronize(); //Refresh the next iterator now that we have updated the keys 
 
 			}
-			else
+			else{
+				if(incremental && curr+1 == iterators.length) //The prefix is about to change
+					flushRun();
 				curr--;
+			}
 
 		} 
 		
 	}
 
 	private void computeAggregates(){
+		
+		if(JoinCounters.ENABLED) data.getCounters(tables.length - 1).add(JoinCounters.AGGREGATE_CALLS, 1);
+		
+		if(weighted){ computeWeightedAggregates(); return;}
+		
+		++count;
+		
+		if(sums != null)
+			for(int k = 0; k < totalKeys; ++k)
+				sums[k] += keyValues[k];
 			
 		if(keysToAggregateOn != null) {computeSelectAggregates(); return;}
 		
@@ -237,6 +306,90 @@ public class JoinAlg {
 		}
 
 
+	//The joined row stands for as many rows as the product of the weights of the rows it is made of
+	private void computeWeightedAggregates(){
+		
+		double weight = 1;
+		for(int t = 0; t < tables.length; ++t)
+			weight *= tables[t].weight(tables[t].getRow(iterators[t].currentRow()));
+		
+		count += weight;
+		
+		if(sums != null)
+			for(int k = 0; k < totalKeys; ++k)
+				sums[k] += keyValues[k]*weight;
+		
+		if(keysToAggregateOn != null){
+			for(int[] ag: keysToAggregateOn)
+				aggregates[ag[0]][ag[1]] += keyValues[ag[0]]*keyValues[ag[1]]*weight;
+			return;
+		}
+		
+		for(int k1 = 0; k1 < totalKeys; ++k1)
+			for(int k2 = k1; k2 <totalKeys; ++k2)
+				aggregates[k1][k2] += keyValues[k1]*keyValues[k2]*weight;
+	}
+	
+	
+	//Prefix mode: only the keys of the last table change from one joined row to the next
+	private void accumulateRun(){
+		
+		final int last = tables.length - 1;
+		double weight = weighted ? tables[last].weight(tables[last].getRow(iterators[last].currentRow())) : 1;
+		
+		if(JoinCounters.ENABLED) data.getCounters(last).add(JoinCounters.AGGREGATE_CALLS, 1);
+		
+		runWeight += weight;
+		
+		for(int key : lastKeys)
+			lastSums[key] += keyValues[key]*weight;
+		
+		for(int p = 0; p < lastPairs.length; p += 2)
+			lastProducts[p/2] += keyValues[lastPairs[p]]*keyValues[lastPairs[p+1]]*weight;
+	}
+	
+	/**Adds the joined rows of the run to the aggregates: for a prefix key A and keys X, Y of the last table,
+	 * SUM(AB) += B*A*RUN_LENGTH, SUM(AX) += A*SUM_RUN(X) and SUM(XY) += SUM_RUN(XY), all times the weight of the prefix*/
+	private void flushRun(){
+		
+		if(runWeight == 0)
+			return;
+		
+		double prefixWeight = 1;
+		if(weighted)
+			for(int t = 0; t < tables.length - 1; ++t)
+				prefixWeight *= tables[t].weight(tables[t].getRow(iterators[t].currentRow()));
+		
+		double rows = prefixWeight*runWeight;
+		count += rows;
+		
+		for(int p = 0; p < prefixPairs.length; p += 2)
+			aggregates[Math.min(prefixPairs[p], prefixPairs[p+1])][Math.max(prefixPairs[p], prefixPairs[p+1])] 
+					+= keyValues[prefixPairs[p]]*keyValues[prefixPairs[p+1]]*rows;
+		
+		for(int p = 0; p < mixedPairs.length; p += 2)
+			aggregates[Math.min(mixedPairs[p], mixedPairs[p+1])][Math.max(mixedPairs[p], mixedPairs[p+1])] 
+					+= keyValues[mixedPairs[p]]*lastSums[mixedPairs[p+1]]*prefixWeight;
+		
+		for(int p = 0; p < lastPairs.length; p += 2){
+			aggregates[Math.min(lastPairs[p], lastPairs[p+1])][Math.max(lastPairs[p], lastPairs[p+1])] += lastProducts[p/2]*prefixWeight;
+			lastProducts[p/2] = 0;
+		}
+		
+		if(sums != null){
+			for(int key : prefixKeys)
+				sums[key] += keyValues[key]*rows;
+			for(int key : lastKeys)
+				sums[key] += lastSums[key]*prefixWeight;
+		}
+		
+		for(int key : lastKeys)
+			lastSums[key] = 0;
+		
+		runWeight = 0;
+	}
+	
+	
 	public static double[][] runWithoutPrint(Table[] init_tables){
 		JoinAlg algo = new JoinAlg(init_tables, null);
 		algo.join();
@@ -271,8 +424,48 @@ public class JoinAlg {
 		return algo.aggregates;
 
 	}
+
+	/**Runs the join and returns its EXPLAIN ANALYZE report, see ExplainAnalyze. The counts and the times of the nodes are
+	 * only in the report if counting is enabled. aggregates may be null, in which case all aggregates are computed*/
+	public static String explainAnalyze(Table[] init_tables, String[][] aggregates){
+		long start = System.nanoTime();
+		JoinAlg algo = new JoinAlg(init_tables, aggregates);
+		algo.join();
+		return ExplainAnalyze.report("JoinAlg", algo.data, System.nanoTime() - start);
+	}
 	
+	/**Same result as runWithoutPrint(), but the products of the keys appearing before the last table in the join order
+	 * are computed once per run of rows of the last table matching the same prefix instead of once per joined row.
+	 * A joined row then costs work proportional to the keys of the last table rather than to all keys.
+	 * aggregates may be null, in which case all aggregates are computed*/
+	public static double[][] runIncrementalWithoutPrint(Table[] init_tables, String[][] aggregates){
+		JoinAlg algo = new JoinAlg(init_tables, aggregates, false, true);
+		algo.join();
+		return algo.aggregates;
+		
+	}
 	
 	
-
+	public static double[][] runIncremental(Table[] init_tables, String[][] aggregates){
+		JoinAlg algo = new JoinAlg(init_tables, aggregates, false, true);
+		algo.join();
+		
+		if(aggregates == null)
+			algo.printResult();
+		else
+			algo.printResultWithSelectAggregates();
+		
+		return algo.aggregates;
+		
+	}
+	
+	/**Computes COUNT(*), SUM(X) of every attribute and the aggregates SUM(XY) in one pass over the join, without printing.
+	 * aggregates may be null, in which case all aggregates SUM(XY) are computed*/
+	public static AggregateResult runWithSums(Table[] init_tables, String[][] aggregates){
+		JoinAlg algo = new JoinAlg(init_tables, aggregates, true);
+		algo.join();
+		return new AggregateResult(algo.data.getAttributes(), algo.count, algo.sums, algo.aggregates);
+		
+	}
+	
 }
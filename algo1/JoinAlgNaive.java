@@ -1,13 +1,9 @@
 package algo1;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-
-import table.JoinIterator;
+import table.AggregateResult;
+import table.ExplainAnalyze;
+import table.JoinCounters;
 import table.Join_Utility;
-import table.SortMergeJoinIterator;
-import table.StartIterator;
 import table.Table;
 import table.TableIterator;
 
@@ -30,15 +26,34 @@ public class JoinAlgNaive {
 	private final double[][] 	aggregates;
 	private final int[][] 		keysToAggregateOn;
 	private final double[] 		keyValues;
+	private final double[]      sums;      //SUM(X) of each key, only computed for runWithSums()
 	
 	private final TableIterator[] iterators;
 	
-	private final List<double []>    joinResult; //The result of the join
+	public static final long DEFAULT_MEMORY_BUDGET = 64L << 20; //Bytes the batch of materialized rows may take
+	private static final int MAX_BATCH_ROWS        = 1 << 16;   //Larger batches no longer make the column loops faster
+	
+	private final double[][]         batch;        //The materialized rows, one column per key, see materializeRow()
+	private final double[]           batchWeights; //Weight of each row of the batch, null if no table is weighted
+	private final int                batchRows;    //Rows the batch holds
+	private       int                batchSize;    //Rows in the batch
+	private       long               count;      //Rows of the join
+	private final boolean            weighted;   //Does some table have weighted rows, see Table.deduplicate()
 
 
 	
 	
 	private JoinAlgNaive(Table[] init_tables, String[][] strAggs){
+		this(init_tables, strAggs, false);
+	}
+	
+	private JoinAlgNaive(Table[] init_tables, String[][] strAggs, boolean withSums){
+		this(init_tables, strAggs, withSums, DEFAULT_MEMORY_BUDGET);
+	}
+	
+	/**The join is materialized into a batch of at most memoryBudget bytes, which is aggregated and reused whenever it
+	 * fills up*/
+	private JoinAlgNaive(Table[] init_tables, String[][] strAggs, boolean withSums, long memoryBudget){
 		
 		this.data       = new Join_Utility(init_tables, strAggs);
 		this.tables = data.getJoinOrder();
@@ -47,7 +62,13 @@ public class JoinAlgNaive {
 		this.totalKeys   = data.getAttributes().size();
 		this.aggregates  = new double[totalKeys][totalKeys];
 		this.keyValues   = new double[totalKeys];
+		this.sums        = withSums ? new double[totalKeys] : null;
 		setUpIterators();
+		
+		boolean weighted = false;
+		for(Table table : tables)
+			weighted |= table.isWeighted();
+		this.weighted = weighted;
 
 		
 		//In case the user does not want all aggregates but only specific ones
@@ -60,32 +81,19 @@ public class JoinAlgNaive {
 		}
 		else keysToAggregateOn = null;
 		
-		joinResult = new ArrayList<double[]>();
+		int columns    = totalKeys + (weighted ? 1 : 0);
+		this.batchRows = (int) Math.max(1, Math.min(MAX_BATCH_ROWS, memoryBudget/(8L*Math.max(1, columns))));
+		
+		this.batch        = new double[totalKeys][batchRows];
+		this.batchWeights = weighted ? new double[batchRows] : null;
 		
 		
 	}
 	
 	private void setUpIterators(){
 		
-		iterators[0] = new StartIterator(data, keyValues);
-		int[] firstJoinKeys = null;
-		
-		if(tables.length > 0){
-			iterators[1] = new SortMergeJoinIterator(data, 1,keyValues);
-			firstJoinKeys = data.getJoinKeys()[1];
-		}
-		
-		int it = 2;
-		
-		while(it < tables.length && Arrays.equals(data.getJoinKeys()[it], firstJoinKeys)){
-				iterators[it] = new SortMergeJoinIterator(data, it, keyValues);
-				++it;
-		}
-		
-		while(it < tables.length){
-			iterators[it] = new JoinIterator(data, it, keyValues);
-			++it;
-		}
+		for(int it = 0; it < tables.length; ++it)
+			iterators[it] = data.makeIterator(it, keyValues);
 	
 	}
 	
@@ -134,38 +142,77 @@ public class JoinAlgNaive {
 	
 	private void materializeRow(){
 		++clock;
-		if(joinResult.size() == 1000000){
-			computeAggregates(); joinResult.clear();
+		
+		for(int k = 0; k < totalKeys; ++k) //Materialize Row
+			batch[k][batchSize] = keyValues[k];
+		
+		if(weighted){ //The weight of the joined row is the product of the weights of the rows it is made of
+			double weight = 1;
+			for(int t = 0; t < tables.length; ++t)
+				weight *= tables[t].weight(tables[t].getRow(iterators[t].currentRow()));
+			batchWeights[batchSize] = weight;
+		}
+		
+		if(++batchSize == batchRows){
+			computeAggregates(); batchSize = 0; //The batch is reused for the next rows
 		}
-		joinResult.add(Arrays.copyOf(keyValues, keyValues.length)); //Materialize Row
 
 	}
 	
 	
 
+	/**Aggregates the rows of the batch one pair of columns at a time, which is a tight loop over two primitive arrays*/
 	private void computeAggregates(){
 		
-		if(keysToAggregateOn != null) {computeSelectAggregates(); return;}
+		final int n = batchSize;
+		
+		if(JoinCounters.ENABLED) data.getCounters(tables.length - 1).add(JoinCounters.AGGREGATE_CALLS, 1);
 		
-		for(double[] row: joinResult)
-			for(int k1 = 0; k1 < totalKeys; ++k1)
-				for(int k2 = k1; k2 <totalKeys; ++k2)
-					aggregates[k1][k2] += row[k1]*row[k2];
+		if(weighted){
+			for(int r = 0; r < n; ++r)
+				count += batchWeights[r];
+		}
+		else
+			count += n;
+		
+		if(sums != null)
+			for(int k = 0; k < totalKeys; ++k)
+				sums[k] += dot(batch[k], null, n);
+		
+		if(keysToAggregateOn != null){
+			for(int[] ag: keysToAggregateOn)
+				aggregates[ag[0]][ag[1]] += dot(batch[ag[0]], batch[ag[1]], n);
+			return;
+		}
+		
+		for(int k1 = 0; k1 < totalKeys; ++k1)
+			for(int k2 = k1; k2 <totalKeys; ++k2)
+				aggregates[k1][k2] += dot(batch[k1], batch[k2], n);
 		
 	}
 	
-
-	private void computeSelectAggregates(){
-
-		for(double[] row: joinResult)
-		for(int[] ag: keysToAggregateOn)
-			aggregates[ag[0]][ag[1]] += row[ag[0]]*row[ag[1]];
-			
+	//SUM(X*Y*WEIGHT) over the first n rows of the columns, SUM(X*WEIGHT) if y is null
+	private double dot(double[] x, double[] y, int n){
+		
+		double sum = 0;
+		
+		if(y == null && !weighted)
+			for(int r = 0; r < n; ++r)
+				sum += x[r];
+		else if(y == null)
+			for(int r = 0; r < n; ++r)
+				sum += x[r]*batchWeights[r];
+		else if(!weighted)
+			for(int r = 0; r < n; ++r)
+				sum += x[r]*y[r];
+		else
+			for(int r = 0; r < n; ++r)
+				sum += x[r]*y[r]*batchWeights[r];
 		
+		return sum;
 	}
 	
 	
-	
 	public static double[][] runWithoutPrint(Table[] init_tables){
 		JoinAlgNaive algo = new JoinAlgNaive(init_tables, null);
 		algo.join();
@@ -200,8 +247,32 @@ public class JoinAlgNaive {
 		return algo.aggregates;
 		
 	}
+
+	/**Runs the join and returns its EXPLAIN ANALYZE report, see ExplainAnalyze. The counts and the times of the nodes are
+	 * only in the report if counting is enabled. aggregates may be null, in which case all aggregates are computed*/
+	public static String explainAnalyze(Table[] init_tables, String[][] aggregates){
+		long start = System.nanoTime();
+		JoinAlgNaive algo = new JoinAlgNaive(init_tables, aggregates);
+		algo.join();
+		return ExplainAnalyze.report("JoinAlgNaive", algo.data, System.nanoTime() - start);
+	}
 	
+	/**Same as runWithoutPrint(), but the materialized rows waiting to be aggregated take at most memoryBudget bytes.
+	 * aggregates may be null, in which case all aggregates are computed*/
+	public static double[][] runWithoutPrint(Table[] init_tables, String[][] aggregates, long memoryBudget){
+		JoinAlgNaive algo = new JoinAlgNaive(init_tables, aggregates, false, memoryBudget);
+		algo.join();
+		return algo.aggregates;
+		
+	}
 	
+	/**Computes COUNT(*), SUM(X) of every attribute and the aggregates SUM(XY) from the materialized join, without printing.
+	 * aggregates may be null, in which case all aggregates SUM(XY) are computed*/
+	public static AggregateResult runWithSums(Table[] init_tables, String[][] aggregates){
+		JoinAlgNaive algo = new JoinAlgNaive(init_tables, aggregates, true);
+		algo.join();
+		return new AggregateResult(algo.data.getAttributes(), algo.count, algo.sums, algo.aggregates);
+		
+	}
 	
-
 }
@@ -0,0 +1,265 @@
+package algo1;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import table.Join_Utility;
+import table.Table;
+import table.TableIterator;
+
+/**Writes the materialized natural join of some tables to a binary columnar file, for consumers that need the joined rows
+ * themselves rather than aggregates. The join is computed by the same iterators as JoinAlgNaive, but instead of being
+ * kept in the heap the rows are written to disk page by page, so the memory used stays the same however large the join is.
+ *
+ * File layout (big endian)
+ *
+ * 	header: MAGIC, VERSION, number of columns, PAGE_ROWS, 1 if the last column holds weights (see Table.deduplicate())
+ * 			else 0, then the name of each column as its length in bytes followed by its UTF-8 bytes
+ * 	pages:  the number of rows in the page, then each column as PAGE_ROWS doubles of which only that many rows are used
+ *
+ * Every page has the same size, which lets a reader seek to any page. Only the last page may be partly filled.
+ * A page is laid out in a direct buffer and handed to the channel in one write, so the disk sees large sequential writes
+ */
+
+public class JoinExporter {
+
+	public static final int MAGIC     = 0x4A4F494E; //"JOIN"
+	public static final int VERSION   = 1;
+	public static final int PAGE_ROWS = 1 << 14;
+
+	private final Table[]         tables;
+	private final Join_Utility    data;
+	private final int             totalKeys;
+	private final double[]        keyValues;
+	private final TableIterator[] iterators;
+	private final boolean         weighted;  //Does some table have weighted rows, then the rows are written with their weight
+	private final int             numCols;
+
+	private final FileChannel     channel;
+	private final ByteBuffer      page;
+	private final int             columnBytes = 8*PAGE_ROWS;
+	private       int             pageSize;  //Rows in the page
+	private       long            rowsWritten;
+
+
+	private JoinExporter(Table[] init_tables, FileChannel channel){
+
+		this.data      = new Join_Utility(init_tables, null);
+		this.tables    = data.getJoinOrder();
+		this.totalKeys = data.getAttributes().size();
+		this.keyValues = new double[totalKeys];
+		this.iterators = new TableIterator[tables.length];
+
+		for(int it = 0; it < tables.length; ++it)
+			iterators[it] = data.makeIterator(it, keyValues);
+
+		boolean weighted = false;
+		for(Table table : tables)
+			weighted |= table.isWeighted();
+
+		this.weighted = weighted;
+		this.numCols  = totalKeys + (weighted ? 1 : 0);
+		this.channel  = channel;
+		this.page     = ByteBuffer.allocateDirect(4 + numCols*columnBytes);
+	}
+
+	private void writeHeader() throws IOException{
+
+		List<byte[]> names = new ArrayList<byte[]>();
+		int headerBytes = 5*4;
+
+		for(String attribute : columnNames()){
+			byte[] name = attribute.getBytes(StandardCharsets.UTF_8);
+			names.add(name);
+			headerBytes += 4 + name.length;
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(headerBytes);
+		header.putInt(MAGIC).putInt(VERSION).putInt(numCols).putInt(PAGE_ROWS).putInt(weighted ? 1 : 0);
+
+		for(byte[] name : names)
+			header.putInt(name.length).put(name);
+
+		header.flip();
+		writeFully(header);
+	}
+
+	private List<String> columnNames(){
+		List<String> names = new ArrayList<String>(data.getAttributes());
+		if(weighted)
+			names.add("weight");
+		return names;
+	}
+
+	private void join() throws IOException{
+
+		int curr = 0; //The rightmost iterator that is not empty
+		TableIterator it;
+
+		while(curr != 0 || iterators[0].hasNext()){ //We are done when the first table's iterator ends
+			it = iterators[curr];
+
+			if(it.hasNext()){
+				it.increment();
+				if(curr+1 == iterators.length) //Is this the last iterator, then write the row
+					writeRow();
+				else
+					iterators[++curr].synchronize(); //Refresh the next iterator now that we have updated the keys
+			}
+			else
+				curr--;
+		}
+
+		if(pageSize > 0)
+			spillPage();
+	}
+
+	private void writeRow() throws IOException{
+
+		int offset = 4 + 8*pageSize;
+
+		for(int k = 0; k < totalKeys; ++k)
+			page.putDouble(offset + k*columnBytes, keyValues[k]);
+
+		if(weighted){ //The weight of the joined row is the product of the weights of the rows it is made of
+			double weight = 1;
+			for(int t = 0; t < tables.length; ++t)
+				weight *= tables[t].weight(tables[t].getRow(iterators[t].currentRow()));
+			page.putDouble(offset + totalKeys*columnBytes, weight);
+		}
+
+		++rowsWritten;
+		if(++pageSize == PAGE_ROWS)
+			spillPage();
+	}
+
+	private void spillPage() throws IOException{
+
+		page.putInt(0, pageSize);
+		page.clear();
+		writeFully(page);
+
+		page.clear();
+		pageSize = 0;
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException{
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+
+	/**Writes the natural join of the tables to file, replacing it if it exists, and returns the number of rows written.
+	 * The columns are the attributes numbered as in Join_Utility.numberAttributes(), followed by the weight of each row
+	 * if some table is weighted*/
+	public static long export(Table[] init_tables, Path file) throws IOException{
+
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+												   StandardOpenOption.TRUNCATE_EXISTING)){
+
+			JoinExporter exporter = new JoinExporter(init_tables, channel);
+			exporter.writeHeader();
+			exporter.join();
+
+			return exporter.rowsWritten;
+		}
+	}
+
+
+	/**Reads a file written by export() one page at a time, so reading it takes as little memory as writing it*/
+	public static class Reader implements AutoCloseable{
+
+		private final FileChannel  channel;
+		private final List<String> columns = new ArrayList<String>();
+		private final boolean      weighted;
+		private final int          pageRows;
+		private final ByteBuffer   page;
+		private       int          pageSize = -1;
+
+		public Reader(Path file) throws IOException{
+
+			this.channel = FileChannel.open(file, StandardOpenOption.READ);
+
+			ByteBuffer header = readFully(ByteBuffer.allocate(5*4));
+			if(header.getInt() != MAGIC)
+				throw new IOException(file + " is not an exported join");
+			if(header.getInt() != VERSION)
+				throw new IOException(file + " was written by another version of the exporter");
+
+			int numCols   = header.getInt();
+			this.pageRows = header.getInt();
+			this.weighted = header.getInt() == 1;
+
+			for(int c = 0; c < numCols; ++c){
+				int length  = readFully(ByteBuffer.allocate(4)).getInt();
+				byte[] name = new byte[length];
+				readFully(ByteBuffer.allocate(length)).get(name);
+				columns.add(new String(name, StandardCharsets.UTF_8));
+			}
+
+			this.page = ByteBuffer.allocateDirect(4 + numCols*8*pageRows);
+		}
+
+		private ByteBuffer readFully(ByteBuffer buffer) throws IOException{
+
+			while(buffer.hasRemaining())
+				if(channel.read(buffer) < 0)
+					throw new IOException("Unexpected end of the exported join");
+
+			buffer.flip();
+			return buffer;
+		}
+
+		public List<String> getColumns(){
+			return Collections.unmodifiableList(columns);
+		}
+
+		public boolean isWeighted(){
+			return weighted;
+		}
+
+		//Reads the next page and returns its number of rows, or -1 at the end of the file
+		public int nextPage() throws IOException{
+
+			page.clear();
+			while(page.hasRemaining())
+				if(channel.read(page) < 0){
+					if(page.position() == 0)
+						return pageSize = -1;
+					throw new IOException("Unexpected end of the exported join");
+				}
+
+			return pageSize = page.getInt(0);
+		}
+
+		/**Copies column col of the current page into values, which must hold at least as many rows as the page, and
+		 * returns it. A new array is allocated if values is null*/
+		public double[] column(int col, double[] values){
+
+			if(pageSize < 0)
+				throw new IllegalStateException("No page was read");
+
+			if(values == null)
+				values = new double[pageSize];
+
+			int offset = 4 + col*8*pageRows;
+			for(int r = 0; r < pageSize; ++r)
+				values[r] = page.getDouble(offset + 8*r);
+
+			return values;
+		}
+
+		@Override
+		public void close() throws IOException{
+			channel.close();
+		}
+	}
+
+}
@@ -0,0 +1,175 @@
+package algo2;
+
+/** The join loop of algorithm 2, shared by the algorithms that only differ in the aggregates they pass up the join:
+ *
+ * The iterators walk the tables in join order. Once the iterator of a table t < N ends a block of rows with the same join
+ * keys of the later tables, every row of the block joins with the rows of the later tables that the first row of the block
+ * joined with, and the clock has counted those since the snapshot of t. So the Aggregator aggregates the whole block at once
+ * from the aggregates of table t+1, and the clock jumps by the joins "skipped" for the other rows of the block.
+ * Each row of the last table is a joined row, or weight joined rows if the table is weighted
+ *
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import table.JoinCounters;
+import table.Join_Utility;
+import table.Table;
+import table.TableIterator;
+
+class BlockJoin {
+
+	/**Computes the aggregates of a table from its rows and the aggregates of the next table in the join order*/
+	interface Aggregator{
+
+		/**Aggregates the rows startRow,...,endRow of table t < N, all of which match the same join keys of the later tables.
+		 * Each of them joins with timeElapsed rows of the later tables, whose aggregates are those of table t+1, and numRows
+		 * is the number of rows of the block, or their total weight. The aggregator resets the aggregates of table t+1*/
+		void aggregateBlock(int t, int startRow, int endRow, double numRows, double timeElapsed);
+
+		/**Aggregates the row of the last table, which counts as weight joined rows*/
+		void aggregateLastRow(int row, double weight);
+	}
+
+	private final Table[]         tables;
+	private final Join_Utility    data;
+	private final Aggregator      aggregator;
+	private final TableIterator[] iterators;
+	private		  long 			  clock;    //The number of joined rows (not-materialized) computed
+	private final long[]          snapShot; //snapshot[it] is the last "time" iterator it was incremented
+	private final AtomicBoolean   cancelled; //Another thread may set this to stop the join early
+
+	private static final int      CANCEL_CHECK_INTERVAL = 1 << 12; //Steps of the join loop between two checks of cancelled
+
+
+	//Makes the iterators of the tables in the join order of data, which sorts the tables
+	BlockJoin(Join_Utility data, Aggregator aggregator, AtomicBoolean cancelled){
+
+		this.data       = data;
+		this.tables     = data.getJoinOrder();
+		this.aggregator = aggregator;
+		this.cancelled  = cancelled;
+		this.iterators  = new TableIterator[tables.length];
+		this.snapShot   = new long[tables.length];
+
+		double[] keyValues = new double[data.getAttributes().size()]; //Value of each key at any point of the join
+		Arrays.fill(keyValues, -23.1);
+		Arrays.fill(snapShot, -1);
+
+		for(int it = 0; it < tables.length; ++it)
+			iterators[it] = data.makeIterator(it, keyValues);
+	}
+
+
+	/**Runs the join and returns the number of joined rows, or their total weight*/
+	long run(){
+
+		int curr = 0; //The rightmost iterator that can be incremented
+		TableIterator it;
+		int steps = 0;
+
+		while(curr > 0 || iterators[0].hasNext()){ //We are done when the first table's iterator ends
+
+			if(++steps == CANCEL_CHECK_INTERVAL){ //Checking the flag every step would slow down the loop
+				steps = 0;
+				if(cancelled.get())
+					throw new CancellationException("Join cancelled");
+			}
+
+			//Handle the last iterator separately
+			if(curr + 1 == iterators.length){
+				it = iterators[iterators.length - 1];
+				if(it.hasNext()){
+					it.increment();
+					computeLastRow(it.currentRow());
+				}
+				else
+					curr--;
+
+				continue;
+			}
+
+			it = iterators[curr];
+
+			if(it.hasNext()){
+
+				if(snapShot[curr] == -1){
+					snapShot[curr] = clock;
+					it.increment(); iterators[++curr].synchronize();
+				}
+
+				else{
+
+					int startRow = it.currentRow();
+
+					while(true){
+
+						boolean keysChanged = it.increment();
+
+						if(keysChanged){ //Join keys changed, so compute aggregates for the rows with the same key
+							iterators[curr+1].synchronize();
+							computeBlock(curr, startRow, it.currentRow() - 1);
+							snapShot[curr] = clock;
+							curr++;
+							//Now we move on to next iterator to compute next part of join
+							break;
+						}
+
+						//The join keys for the next table stayed the same so we can reuse the pre-computed aggregates
+
+						if(!it.hasNext()){
+							computeBlock(curr, startRow, it.currentRow());
+							snapShot[curr--] = -1;
+							break;
+						}
+					}
+				}
+			}
+
+			else{
+
+				if(snapShot[curr] != -1)
+					computeBlock(curr, it.currentRow(), it.currentRow());
+
+				snapShot[curr--] = -1;
+			}
+		}
+
+		if(snapShot[0] != -1) //Because of how the loop is structured, we may not account for last row of first table so
+			computeBlock(0, iterators[0].currentRow(), iterators[0].currentRow()); //we do so here
+
+		return clock;
+	}
+
+	private void computeBlock(int t, int startRow, int endRow){
+
+		double timeElapsed = clock - snapShot[t];
+
+		if(timeElapsed == 0) //No rows were successfully joined, so nothing to do
+			return;
+
+		if(JoinCounters.ENABLED){
+			data.getCounters(t).add(JoinCounters.AGGREGATE_CALLS, 1);
+			data.getCounters(t).add(JoinCounters.SKIPPED_ROWS, endRow - startRow); //They reuse the aggregates of startRow
+		}
+
+		double numRows = tables[t].weight(startRow, endRow); //The number of rows, or their total weight
+		aggregator.aggregateBlock(t, startRow, endRow, numRows, timeElapsed);
+
+		clock += (numRows - 1)*timeElapsed; //increase clock to make up for the joins we "skipped"
+	}
+
+	private void computeLastRow(int row){
+
+		final int t = tables.length - 1;
+		double weight = tables[t].weight(tables[t].getRow(row));
+		clock += weight;
+
+		if(JoinCounters.ENABLED) data.getCounters(t).add(JoinCounters.AGGREGATE_CALLS, 1);
+
+		aggregator.aggregateLastRow(row, weight);
+	}
+
+}
@@ -21,18 +21,29 @@ package algo2;
  * 
  * Both of these improvements offer dramatic speed ups of the algorithm
  * 
+ * Group by: the aggregates can also be computed for each value of an attribute G in one pass (see runGrouped()). The join
+ * then starts with a table holding G, so the G of every joined row is the G of the row of the first table it comes from. All
+ * aggregates end up in the buffer of the first table, and the first table's iterator ends a block of rows whenever G changes,
+ * so we simply give each group a buffer of its own and switch to it before aggregating a block of the first table
+ * 
+ * Cross validation: likewise the rows of the first table can be split into k folds by a hash of the row (see runFolds()).
+ * The rows of a block of the first table may fall into different folds, but they all join with the same rows of the later
+ * tables, so each fold combines the buffers of the next table with the sums over its own rows of the block. One pass
+ * computes the aggregates of all folds, at the cost of updating k buffers instead of one for each block of the first table
+ * 
  */
 
 
-import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import table.DumbJoinIterator;
-import table.JoinIterator;
+import table.AggregateResult;
+import table.ExplainAnalyze;
+import table.Condition;
 import table.Join_Utility;
-import table.SortMergeJoinIterator;
-import table.StartIterator;
 import table.Table;
-import table.TableIterator;
+import table.Values;
 
 public class JoinAlg2 {
 
@@ -43,62 +54,83 @@ public class JoinAlg2 {
 	private final int[][] 		  keysToAggregateOn;
 	private final double[][]      sumBuffer;
 	private final double[][]      aggBuffer;
-	private final TableIterator[] iterators;
+	private final BlockJoin       joinLoop; //The join loop, which hands each block of rows to computeAggregates()
 	private		  long 			  clock;    //The number of joined rows (not-materialized) computed
-	private final double[]        keyValues; //Value of each key at any point of the join
-	private final long[]          snapShot; //snapshot[it] is the last "time" iterator it was incremented where time refers to 
-    										// our discrete definition of time
+	private final int             groupCol;  //Column of the group by attribute in the first table, -1 without group by
+	private final Map<Double, double[]> groupBuffers = new TreeMap<Double, double[]>(); //Aggregate buffer of each group
+	private       double          currGroup; //The group whose buffer is aggBuffer[0]
+	private final int             numFolds;  //Number of folds the rows of the first table are split into, 1 without folds
+	private       int[]           rowFolds;  //Fold of each row of the first table
+	private final double[][]      foldAggBuffers; //The aggregate and sum buffers of the first table for each fold
+	private final double[][]      foldSumBuffers;
+	private final double[][]      foldRowSums;    //Sums of the first appearing keys over the rows of a block in each fold
+	private final double[]        foldRows;       //Rows of the block in each fold, or their total weight
+	private final long[]          foldCounts;     //Joined rows of each fold
 
 	
 	private JoinAlg2(Table[] init_tables, String[][] strAggs){
+		this(init_tables, strAggs, new AtomicBoolean());
+	}
+	
+	private JoinAlg2(Table[] init_tables, String[][] strAggs, AtomicBoolean cancelled){
+		this(init_tables, strAggs, cancelled, null);
+	}
+	
+	private JoinAlg2(Table[] init_tables, String[][] strAggs, AtomicBoolean cancelled, String groupBy){
+		this(init_tables, strAggs, cancelled, groupBy, 1);
+	}
+	
+	private JoinAlg2(Table[] init_tables, String[][] strAggs, AtomicBoolean cancelled, String groupBy, int numFolds){
+		this(init_tables, strAggs, cancelled, groupBy, numFolds, new Condition[0]);
+	}
+	
+	private JoinAlg2(Table[] init_tables, String[][] strAggs, AtomicBoolean cancelled, String groupBy, int numFolds, Condition[] where){
+		
+		this.numFolds        = numFolds;
 		
-		this.data      		 = new Join_Utility(init_tables, strAggs);
+		this.data      		 = new Join_Utility(init_tables, strAggs, groupBy, where);
+		this.groupCol        = data.getGroupCol();
 		this.tables          = data.getJoinOrder();
 		
-		this.iterators       = new TableIterator[tables.length];
 		this.totalKeys       = data.getAttributes().size();
 		this.aggBuffer  	 = new double[tables.length][totalKeys*totalKeys];
 		this.aggregates      = new double[totalKeys][totalKeys];
 		
 		this.sumBuffer       = new double[tables.length][totalKeys];
-		this.snapShot        = new long[tables.length];
 		
-		this.keyValues       = new double[totalKeys];
 		this.keysToAggregateOn = data.getKeysToAggregateOn();
-		Arrays.fill(keyValues, -23.1);
-		Arrays.fill(snapShot, -1);
 		
-
-		
-		data.prepareDataForAlg2(); 
+		if(groupCol != -1)
+			aggBuffer[0] = null; //Each group gets its own buffer, see switchGroup()
 		
-		setUpIterators();
 
 		
-	}
-	
-	private void setUpIterators(){
-		
-		iterators[0] = new StartIterator(data, keyValues);
-		int[] firstJoinKeys = null;
+		this.foldAggBuffers  = new double[numFolds > 1 ? numFolds : 0][totalKeys*totalKeys];
+		this.foldSumBuffers  = new double[foldAggBuffers.length][totalKeys];
+		this.foldRowSums     = new double[foldAggBuffers.length][totalKeys];
+		this.foldRows        = new double[foldAggBuffers.length];
+		this.foldCounts      = new long[foldAggBuffers.length];
 		
-		if(tables.length > 0){
-			iterators[1] = new SortMergeJoinIterator(data, 1, keyValues);
-			firstJoinKeys = data.getJoinKeys()[1];
-		}
+		data.prepareDataForAlg2(); 
 		
-		int it = 2;
+		this.joinLoop = new BlockJoin(data, new BlockJoin.Aggregator(){
+			
+			public void aggregateBlock(int t, int startRow, int endRow, double numRows, double timeElapsed){
+				computeAggregates(t, startRow, endRow, numRows, timeElapsed);
+			}
+			
+			public void aggregateLastRow(int row, double weight){
+				computeRightMostAggregates(row, weight);
+			}
+		}, cancelled);
 		
-		while(it < tables.length && Arrays.equals(data.getJoinKeys()[it], firstJoinKeys)){
-				iterators[it] = new SortMergeJoinIterator(data, it, keyValues);
-				++it;
+		if(numFolds > 1){ //The iterators have sorted the first table, so the rows no longer move
+			rowFolds = new int[tables[0].getSize()];
+			for(int r = 0; r < rowFolds.length; ++r)
+				rowFolds[r] = foldOf(tables[0].getRow(r), tables[0].numCols(), numFolds);
 		}
+
 		
-		while(it < tables.length){
-			iterators[it] = new JoinIterator(data, it, keyValues);
-			++it;
-		}
-	
 	}
 	
 	private void printResult(){
@@ -120,79 +152,10 @@ public class JoinAlg2 {
 	
 	private void join(){
 		
-		int curr = 0; //The rightmost iterator that can be incremented 
-		TableIterator it;
-
-		while(curr > 0 || iterators[0].hasNext()){ //We are done when the first table's iterator ends
-			
-			//Handle the last iterator separately
-			if(curr + 1 == iterators.length){ 
-				it = iterators[iterators.length - 1];
-				if(it.hasNext()){
-					it.increment(); ++clock; 
-					computeRightMostAggregates(); 
-				}
-				else
-					curr--;
-			
-				continue;
-			}
-
-		    it = iterators[curr];
-
-			
-			if(it.hasNext()){
-				
-				if(snapShot[curr] == -1){
-					snapShot[curr] = clock;
-					it.increment(); iterators[++curr].synchronize();
-				}
-
-				else{
-
-					int startRow = it.currentRow();
-
-					while(true){
-						
-						boolean keysChanged = it.increment(); //iterators[curr+1].synchronize();
-						
-						if(keysChanged){ //Join keys changed, so compute aggregates for the rows with the same key
-							iterators[curr+1].synchronize();
-							computeAggregates(curr, startRow, it.currentRow() - 1);
-							snapShot[curr] = clock;
-							curr++;
-							//Now we move on to next iterator to compute next part of join
-							break;
-						}
-
-						//The join keys for the next table stayed the same so we can reuse the pre-computed aggregates in the buffer
-
-						if(!it.hasNext()){ 
-							computeAggregates(curr, startRow, it.currentRow());
-							snapShot[curr--] = -1;
-							//Now we move on to next iterator to compute next part of join
-							break;
-						}
-					}
-
-
-				}
-
-			}
-
-			else{
-
-				if(snapShot[curr] != -1)
-					computeAggregates(curr, it.currentRow(), it.currentRow());
-				
-				snapShot[curr--] = -1; 
-				
-			}
-			
-		}
+		clock = joinLoop.run(); //See BlockJoin for the loop itself
 		
-		if(snapShot[0] != -1) //Because of how the algorithm is structured, we may not account for last row of first table so
-			computeAggregates(0, iterators[0].currentRow(), iterators[0].currentRow()); //we do so here
+		if(groupCol != -1) //The groups' results are read with groupedAggregates()
+			return;
 		
 		//Accumulate result in array to return
 		for(int k1 = 0; k1 < totalKeys; ++k1)
@@ -233,12 +196,15 @@ public class JoinAlg2 {
 	 */
 	
 	
-	private void computeAggregates(int t, int startRow, int endRow){
-
-		double timeElapsed = clock - snapShot[t];
-
-		if(timeElapsed == 0) //No rows were successfully joined, so nothing to do 
+	private void computeAggregates(int t, int startRow, int endRow, final double numRows, double timeElapsed){
+		
+		if(t == 0 && groupCol != -1) //All rows of the block are in the same group
+			switchGroup(tables[0].getRow(startRow)[groupCol]);
+		
+		if(t == 0 && numFolds > 1){
+			computeFoldAggregates(startRow, endRow, timeElapsed);
 			return;
+		}
 		
 		double[] row;
 		int[] sameTableAggs      = data.getSameTableAggs(t);
@@ -255,10 +221,12 @@ public class JoinAlg2 {
 
 
 		Table table = tables[t];
+		boolean weighted = table.isWeighted();
 
 
 		for(int r = startRow; r <= endRow; ++r){
 			row = table.getRow(r);
+			double weight = weighted ? table.weight(row) : 1; //A weighted row counts as weight equal rows
 
 			/**1) Compute aggregates in the form of SUM(XY) where X and Y are two columns that appear for the first time in
 			 * the join order in table T. We have that SUM(XY) = (x1*y1 + x2y2 +...xnyn)*timeElapsed where we refer to the start row as row 1
@@ -266,14 +234,14 @@ public class JoinAlg2 {
 			 * we are aggregating on
 			 *  */
 			for(int k = 0; k < sameTableAggCols.length; k+=2)	
-				buf[sameTableAggs[k/2]] += row[sameTableAggCols[k]]*row[sameTableAggCols[k+1]]*timeElapsed;
+				buf[sameTableAggs[k/2]] += row[sameTableAggCols[k]]*row[sameTableAggCols[k+1]]*timeElapsed*weight;
 
 			/**2) Compute linear sums in the form SUM(X) where X is a column in this table that never appears 
 			 * earlier in the join order
 			 */
 
 			for(int k = 0; k < firstAppearingKeys.length; ++k)
-				nextSumBuf[firstAppearingKeys[k]] += row[firstAppeaingCols[k]];
+				nextSumBuf[firstAppearingKeys[k]] += row[firstAppeaingCols[k]]*weight;
 			
 		}
 
@@ -298,8 +266,6 @@ public class JoinAlg2 {
 		 * 
 		 */
 		
-		final int numRows = 1 + endRow - startRow;
-		
 		for(int key: data.getKeysAfter(t)){
 			sumBuf[key] += numRows*nextSumBuf[key];
 			nextSumBuf[key] = 0;	//Reset next buffer for reuse
@@ -329,8 +295,6 @@ public class JoinAlg2 {
 			sumBuf[key] += nextSumBuf[key]*timeElapsed;
 			nextSumBuf[key] = 0;
 		}
-		
-		clock += (endRow - startRow)*timeElapsed; //increase clock to make up for the joins we "skipped"
 	
 	}
 	
@@ -341,9 +305,19 @@ public class JoinAlg2 {
 	 */
 	
 	
-	private void computeRightMostAggregates(){
+	private void computeRightMostAggregates(int r, double weight){
 		final int t = tables.length - 1;
-		double[] row = tables[t].getRow(iterators[t].currentRow());
+		double[] row = tables[t].getRow(r);
+		
+		if(t == 0 && groupCol != -1) //A single table is aggregated one row at a time
+			switchGroup(row[groupCol]);
+		
+		if(t == 0 && numFolds > 1){
+			int fold = rowFolds[r];
+			aggBuffer[0] = foldAggBuffers[fold]; sumBuffer[0] = foldSumBuffers[fold];
+			foldCounts[fold] += weight;
+		}
+		
 		double[] buf       	     = aggBuffer[t];
 		double[] sumBuf          = sumBuffer[t];
 		int[] sameTableAggs      = data.getSameTableAggs(t);
@@ -354,19 +328,134 @@ public class JoinAlg2 {
 		/**1) Compute aggregates in the form of SUM(XY) where X and Y are two columns that appear for the first time in
 		 * the join order in table T     */
 		for(int k = 0; k < sameTableAggCols.length; k+=2)	
-			buf[sameTableAggs[k/2]] += row[sameTableAggCols[k]]*row[sameTableAggCols[k+1]];
+			buf[sameTableAggs[k/2]] += row[sameTableAggCols[k]]*row[sameTableAggCols[k+1]]*weight;
 
 		/**2) Compute linear sums in the form SUM(X) where X is a column in this table that never appears 
 		 * earlier in the join order
 		 */
 
 		for(int k = 0; k < firstAppearingKeys.length; ++k)
-			sumBuf[firstAppearingKeys[k]] += row[firstAppeaingCols[k]];
+			sumBuf[firstAppearingKeys[k]] += row[firstAppeaingCols[k]]*weight;
 		
 	}
 	
 	
 	
+	/**computeAggregates() for a block of the first table whose rows are split into folds. Steps 1-6 are those of
+	 * computeAggregates(), but each fold only aggregates its own rows of the block and writes into its own buffers.
+	 * The buffers of the next table hold the aggregates joining with any row of the block, so all folds read them*/
+	private void computeFoldAggregates(int startRow, int endRow, double timeElapsed){
+		
+		double[] row;
+		int[] sameTableAggs      = data.getSameTableAggs(0);
+		int[] sameTableAggCols	 = data.getSameTableCols(0);
+		int[] firstAppearingKeys = data.getFirstAppearingKeys(0);
+		int[] firstAppeaingCols  = data.getFirstAppearingCols(0);
+		int[]  mixedAggs         = data.getMixedAggs(0);
+		int[]  writeMixed        = data.getWriteMixedAggs(0);
+		double[] nextSumBuf      = sumBuffer[1];
+		double[] nextBuf       	 = aggBuffer[1];
+		int[]    aggsLater       = data.getLaterAggs(0);
+		int[]    keysAfter       = data.getKeysAfter(0);
+		
+		for(int r = startRow; r <= endRow; ++r){ //1) and 2)
+			row = tables[0].getRow(r);
+			
+			int fold = rowFolds[r];
+			double[] buf     = foldAggBuffers[fold];
+			double[] rowSums = foldRowSums[fold];
+			double   weight  = tables[0].weight(row);
+			foldRows[fold] += weight;
+			
+			for(int k = 0; k < sameTableAggCols.length; k+=2)	
+				buf[sameTableAggs[k/2]] += row[sameTableAggCols[k]]*row[sameTableAggCols[k+1]]*timeElapsed*weight;
+			
+			for(int k = 0; k < firstAppearingKeys.length; ++k)
+				rowSums[firstAppearingKeys[k]] += row[firstAppeaingCols[k]]*weight;
+		}
+		
+		for(int fold = 0; fold < numFolds; ++fold){
+			
+			final double numRows = foldRows[fold];
+			if(numRows == 0)
+				continue;
+			
+			double[] buf     = foldAggBuffers[fold];
+			double[] sumBuf  = foldSumBuffers[fold];
+			double[] rowSums = foldRowSums[fold];
+			
+			for(int k = 0; k < mixedAggs.length; k+=2) //3) mixedAggs[k] appears after the first table, mixedAggs[k+1] in it
+				buf[writeMixed[k/2]] += nextSumBuf[mixedAggs[k]]*rowSums[mixedAggs[k+1]];
+			
+			for(int key: keysAfter) //4)
+				sumBuf[key] += numRows*nextSumBuf[key];
+			
+			for(int agg : aggsLater) //5)
+				buf[agg] += numRows*nextBuf[agg]; 
+			
+			for(int key : firstAppearingKeys){ //6)
+				sumBuf[key] += rowSums[key]*timeElapsed;
+				rowSums[key] = 0;
+			}
+			
+			foldCounts[fold] += (long) (numRows*timeElapsed);
+			foldRows[fold] = 0;
+		}
+		
+		for(int key: keysAfter) //Reset the next buffers for reuse
+			nextSumBuf[key] = 0;
+		
+		for(int agg : aggsLater)
+			nextBuf[agg] = 0;
+	}
+	
+	//Assigns a row to a fold by a hash of the values of its numCols columns, so equal rows always fall into the same fold
+	private static int foldOf(double[] row, int numCols, int numFolds){
+		
+		long hash = 0x9e3779b97f4a7c15L;
+		for(int col = 0; col < numCols; ++col)
+			hash = Values.mix(hash ^ Double.doubleToLongBits(Values.normalize(row[col])));
+		
+		return (int) Math.floorMod(hash, (long) numFolds);
+	}
+	
+	//Makes aggBuffer[0] the buffer of group
+	private void switchGroup(double group){
+		
+		if(group == currGroup && aggBuffer[0] != null)
+			return;
+		
+		group = Values.normalize(group);
+		
+		double[] buffer = groupBuffers.get(group);
+		if(buffer == null){
+			buffer = new double[totalKeys*totalKeys];
+			groupBuffers.put(group, buffer);
+		}
+		
+		aggBuffer[0] = buffer;
+		currGroup    = group;
+	}
+	
+	//Lays the buffer of each group out like the result of the ungrouped algorithm
+	private Map<Double, double[][]> groupedAggregates(){
+		
+		Map<Double, double[][]> groups = new TreeMap<Double, double[][]>();
+		
+		for(Map.Entry<Double, double[]> group : groupBuffers.entrySet()){
+			double[][] aggs = new double[totalKeys][totalKeys];
+			
+			for(int k1 = 0; k1 < totalKeys; ++k1)
+				for(int k2 = k1; k2 < totalKeys; ++k2)
+					aggs[k1][k2] = group.getValue()[k1*totalKeys+k2];
+			
+			groups.put(group.getKey(), aggs);
+		}
+		
+		return groups;
+	}
+	
+	
 	public static double[][] runWithoutPrint(Table[] init_tables){
 		JoinAlg2 algo = new JoinAlg2(init_tables, null);
 		algo.join();
@@ -392,6 +481,16 @@ public class JoinAlg2 {
 	}
 
 	
+	/**Same as above, but the join stops with a CancellationException soon after another thread sets cancelled.
+	 * aggregates may be null, in which case all aggregates are computed*/
+	public static double[][] runWithoutPrint(Table[] init_tables, String[][] aggregates, AtomicBoolean cancelled){
+		JoinAlg2 algo = new JoinAlg2(init_tables, aggregates, cancelled);
+		algo.join();
+		return algo.aggregates;
+		
+	}
+
+	
 	public static double[][] run(Table[] init_tables, String[][] aggregates){
 		JoinAlg2 algo = new JoinAlg2(init_tables, aggregates);
 		algo.join();
@@ -399,6 +498,144 @@ public class JoinAlg2 {
 		return algo.aggregates;
 		
 	}
+
+	/**Plans the join and makes its iterators, sorting the tables, but does not run it. run() on the result then computes
+	 * the aggregates as runWithoutPrint() does, so the join loop can be timed apart from the planning, see
+	 * bench.MicroBenchmarks. aggregates may be null, in which case all aggregates are computed*/
+	public static Prepared prepare(Table[] init_tables, String[][] aggregates){
+		return new Prepared(new JoinAlg2(init_tables, aggregates));
+	}
+
+	/**A join made by prepare(). Its iterators only move forward, so it can only be run once*/
+	public static class Prepared{
+
+		private final JoinAlg2 algo;
+		private       boolean  ran;
+
+		private Prepared(JoinAlg2 algo){
+			this.algo = algo;
+		}
+
+		public double[][] run(){
+
+			if(ran)
+				throw new IllegalStateException("A prepared join can only be run once");
+
+			ran = true;
+			algo.join();
+			return algo.aggregates;
+		}
+	}
+
+	/**Runs the join and returns its EXPLAIN ANALYZE report, see ExplainAnalyze. The counts and the times of the nodes are
+	 * only in the report if counting is enabled. aggregates may be null, in which case all aggregates are computed*/
+	public static String explainAnalyze(Table[] init_tables, String[][] aggregates){
+		long start = System.nanoTime();
+		JoinAlg2 algo = new JoinAlg2(init_tables, aggregates);
+		algo.join();
+		return ExplainAnalyze.report("JoinAlg2", algo.data, System.nanoTime() - start);
+	}
+	
+	/**Computes the aggregates separately for each value of the attribute groupBy, in a single pass over the join.
+	 * Returns the aggregates of each group, laid out as by runWithoutPrint(), ordered by group. Groups none of whose rows
+	 * join with the other tables are left out. aggregates may be null, in which case all aggregates are computed*/
+	public static Map<Double, double[][]> runGroupedWithoutPrint(Table[] init_tables, String[][] aggregates, String groupBy){
+		JoinAlg2 algo = new JoinAlg2(init_tables, aggregates, new AtomicBoolean(), groupBy);
+		algo.join();
+		return algo.groupedAggregates();
+		
+	}
+	
+	
+	public static Map<Double, double[][]> runGrouped(Table[] init_tables, String[][] aggregates, String groupBy){
+		JoinAlg2 algo = new JoinAlg2(init_tables, aggregates, new AtomicBoolean(), groupBy);
+		algo.join();
+		
+		Map<Double, double[][]> groups = algo.groupedAggregates();
+		
+		for(Map.Entry<Double, double[][]> group : groups.entrySet()){
+			System.out.println(groupBy + " = " + group.getKey());
+			for(int k = 0; k < algo.totalKeys; ++k)
+				System.arraycopy(group.getValue()[k], 0, algo.aggregates[k], 0, algo.totalKeys);
+			
+			if(aggregates == null)
+				algo.printResult();
+			else
+				algo.printResultWithSelectAggregates();
+		}
+		
+		return groups;
+		
+	}
+	
+	/**Returns COUNT(*), SUM(X) of every attribute and the aggregates SUM(XY), without printing. The algorithm computes the
+	 * linear sums and the number of joined rows on its way to SUM(XY) anyway, so they come for free.
+	 * aggregates may be null, in which case all aggregates SUM(XY) are computed*/
+	public static AggregateResult runWithSums(Table[] init_tables, String[][] aggregates){
+		JoinAlg2 algo = new JoinAlg2(init_tables, aggregates);
+		algo.join();
+		return new AggregateResult(algo.data.getAttributes(), algo.clock, algo.sumBuffer[0].clone(), algo.aggregates);
+		
+	}
+	
+	/**Computes the aggregates over the rows of the join satisfying all conditions in where, without printing. The
+	 * conditions are pushed down to the tables before the join, see Condition. aggregates may be null, in which case all
+	 * aggregates are computed*/
+	public static double[][] runWhereWithoutPrint(Table[] init_tables, String[][] aggregates, Condition... where){
+		JoinAlg2 algo = new JoinAlg2(init_tables, aggregates, new AtomicBoolean(), null, 1, where);
+		algo.join();
+		return algo.aggregates;
+		
+	}
+	
+	
+	public static double[][] runWhere(Table[] init_tables, String[][] aggregates, Condition... where){
+		JoinAlg2 algo = new JoinAlg2(init_tables, aggregates, new AtomicBoolean(), null, 1, where);
+		algo.join();
+		
+		if(aggregates == null)
+			algo.printResult();
+		else
+			algo.printResultWithSelectAggregates();
+		
+		return algo.aggregates;
+		
+	}
+	
+	//runWithSums() over the rows of the join satisfying all conditions in where
+	public static AggregateResult runWithSumsWhere(Table[] init_tables, String[][] aggregates, Condition... where){
+		JoinAlg2 algo = new JoinAlg2(init_tables, aggregates, new AtomicBoolean(), null, 1, where);
+		algo.join();
+		return new AggregateResult(algo.data.getAttributes(), algo.clock, algo.sumBuffer[0].clone(), algo.aggregates);
+		
+	}
+	
+	/**Splits the rows of the first table of the join order into numFolds folds by a hash of each row and computes
+	 * COUNT(*), SUM(X) and the aggregates SUM(XY) of each fold in one pass over the join. Entry f of the result holds the
+	 * aggregates over the joined rows coming from fold f, the test set of fold f; its training set is the sum of the other
+	 * folds, see AggregateResult.sumExcept(). aggregates may be null, in which case all aggregates are computed*/
+	public static AggregateResult[] runFolds(Table[] init_tables, String[][] aggregates, int numFolds){
+		
+		if(numFolds < 2)
+			throw new IllegalArgumentException("Cross validation needs at least 2 folds");
+		
+		JoinAlg2 algo = new JoinAlg2(init_tables, aggregates, new AtomicBoolean(), null, numFolds);
+		algo.join();
+		
+		AggregateResult[] folds = new AggregateResult[numFolds];
+		int totalKeys = algo.totalKeys;
+		
+		for(int fold = 0; fold < numFolds; ++fold){
+			double[][] aggs = new double[totalKeys][totalKeys];
+			for(int k1 = 0; k1 < totalKeys; ++k1)
+				for(int k2 = k1; k2 < totalKeys; ++k2)
+					aggs[k1][k2] = algo.foldAggBuffers[fold][k1*totalKeys+k2];
+			
+			folds[fold] = new AggregateResult(algo.data.getAttributes(), algo.foldCounts[fold], algo.foldSumBuffers[fold].clone(), aggs);
+		}
+		
+		return folds;
+		
+	}
 	
 }
-
@@ -0,0 +1,339 @@
+package algo2;
+
+/** Algorithm 2 with categorical attributes:
+ *
+ * A categorical attribute C (see Table.setCategorical()) stands for the indicators [C = c] of its categories, so a
+ * regression needs aggregates like SUM([C = c]), SUM(X*[C = c]) and SUM([C = c]*[D = d]) for every category c and d.
+ * Expanding C into one column per category before the join would multiply the number of keys, and with it the
+ * totalKeys*totalKeys buffers, by the number of categories.
+ *
+ * Instead this algorithm computes monomials just like JoinAlgMonomials, but each partial sum is a sparse map from the
+ * categories of the categorical attributes in the monomial to the sum for those categories. The sum over a block of rows
+ * is a map with an entry for each combination of categories present in the block, and combining it with the partial
+ * sum of the next table is an outer product of the two maps. Hence memory and work grow with the combinations of
+ * categories that actually occur in the join, and a monomial without categorical attributes is a map with a single entry.
+ *
+ * A categorical attribute repeated in a monomial counts once, since [C = c]*[C = c'] is [C = c] if c = c' and 0 otherwise
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import table.Join_Utility;
+import table.Table;
+import table.Values;
+
+public class JoinAlgCategorical {
+
+	private final Table[]         tables;
+	private final Join_Utility    data;
+	private final String[][]      monomials; //With repeated categorical attributes removed
+	private final boolean[]       categorical; //categorical[key] is true if a table declares the key categorical
+	private final List<Map<List<Double>, Double>> results;
+	private final SparseSum[][]   partialSums; //partialSums[t][s] is partial sum s of table t, partialSums[N][0] = {(): 1}
+	private final SparseSum[][]   products;    //products[t][h] is the sum of monomial h over the current block of table t
+	private final int[][][]       categoryCols;  //categoryCols[t][h]: columns of categorical attributes in monomial h of table t
+	private final int[][][]       numericCols;   //numericCols[t][h]: the other columns of monomial h of table t
+	private final BlockJoin       joinLoop; //The join loop of algorithm 2, which hands each block of rows to computeBlock()
+	private		  long 			  clock;    //The number of joined rows (not-materialized) computed
+
+	private static final Categories NONE = new Categories(new double[0]);
+
+
+	/**The values of the categorical attributes of a monomial. At table t they are ordered as the attributes appear in the
+	 * join order (by key within a table), so that a partial sum's categories are those of the block followed by those of the
+	 * next table's partial sum*/
+	private static class Categories{
+
+		final double[] values;
+		final int      hash;
+
+		Categories(double[] values){
+			this.values = values;
+			this.hash   = Arrays.hashCode(values);
+		}
+
+		Categories concat(Categories later){
+
+			if(later.values.length == 0) return this;
+			if(values.length == 0)       return later;
+
+			double[] both = Arrays.copyOf(values, values.length + later.values.length);
+			System.arraycopy(later.values, 0, both, values.length, later.values.length);
+			return new Categories(both);
+		}
+
+		@Override
+		public int hashCode(){
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other){
+			return other instanceof Categories && Arrays.equals(values, ((Categories) other).values);
+		}
+	}
+
+	/**A sum for each combination of categories present. The sums are kept in arrays of length 1 to update them in place*/
+	private static class SparseSum{
+
+		final HashMap<Categories, double[]> sums = new HashMap<Categories, double[]>();
+
+		void add(Categories categories, double value){
+			double[] sum = sums.get(categories);
+			if(sum == null)
+				sums.put(categories, new double[]{value});
+			else
+				sum[0] += value;
+		}
+
+		//this += block (outer product) later
+		void addProduct(SparseSum block, SparseSum later){
+			for(Map.Entry<Categories, double[]> b : block.sums.entrySet())
+				for(Map.Entry<Categories, double[]> l : later.sums.entrySet())
+					add(b.getKey().concat(l.getKey()), b.getValue()[0]*l.getValue()[0]);
+		}
+
+		void set(double value){
+			sums.clear();
+			sums.put(NONE, new double[]{value});
+		}
+	}
+
+
+	private JoinAlgCategorical(Table[] init_tables, String[][] monomials){
+
+		this.data    = new Join_Utility(init_tables, null);
+		this.tables  = data.getJoinOrder();
+
+		int totalKeys = data.getAttributes().size();
+		this.categorical = new boolean[totalKeys];
+
+		for(Table table : tables)
+			for(int col = 0; col < table.numCols(); ++col)
+				if(table.isCategorical(col))
+					categorical[table.keyAtCol(col)] = true;
+
+		this.monomials = new String[monomials.length][];
+		for(int m = 0; m < monomials.length; ++m){
+			List<String> factors = new ArrayList<String>();
+			Set<String>  seen    = new LinkedHashSet<String>();
+
+			for(String factor : monomials[m]){
+				if(!data.getAttributes().contains(factor))
+					throw new IllegalArgumentException("No table has the attribute " + factor);
+				if(!categorical[data.getKey(factor)] || seen.add(factor))
+					factors.add(factor);
+			}
+
+			this.monomials[m] = factors.toArray(new String[factors.size()]);
+		}
+
+		this.results = new ArrayList<Map<List<Double>, Double>>(monomials.length);
+
+		data.prepareMonomials(this.monomials);
+
+		this.partialSums  = new SparseSum[tables.length + 1][];
+		this.products     = new SparseSum[tables.length][];
+		this.categoryCols = new int[tables.length][][];
+		this.numericCols  = new int[tables.length][][];
+
+		for(int t = 0; t <= tables.length; ++t){
+			partialSums[t] = new SparseSum[data.getNumPartialSums(t)];
+			for(int s = 0; s < partialSums[t].length; ++s)
+				partialSums[t][s] = new SparseSum();
+		}
+
+		for(int t = 0; t < tables.length; ++t)
+			splitColumns(t);
+
+		partialSums[tables.length][0].set(1); //Each row of the last table joins with exactly one row "after" it
+
+		this.joinLoop = new BlockJoin(data, new BlockJoin.Aggregator(){
+
+			public void aggregateBlock(int t, int startRow, int endRow, double numRows, double timeElapsed){
+				computeBlock(t, startRow, endRow, numRows, timeElapsed);
+			}
+
+			public void aggregateLastRow(int row, double weight){
+				computeAggregates(tables.length - 1, row, row, weight);
+			}
+		}, new AtomicBoolean());
+	}
+
+	//Splits the columns of each monomial of table t into categorical and numeric ones
+	private void splitColumns(int t){
+
+		int[][] cols = data.getMonomialCols(t);
+
+		products[t]     = new SparseSum[cols.length];
+		categoryCols[t] = new int[cols.length][];
+		numericCols[t]  = new int[cols.length][];
+
+		for(int h = 0; h < cols.length; ++h){
+			products[t][h] = new SparseSum();
+
+			int numCategorical = 0;
+			for(int col : cols[h])
+				if(categorical[tables[t].keyAtCol(col)]) ++numCategorical;
+
+			categoryCols[t][h] = new int[numCategorical];
+			numericCols[t][h]  = new int[cols[h].length - numCategorical];
+
+			int c = 0, n = 0;
+			for(int col : cols[h]){ //The columns are ordered by key, as the categories of a partial sum need
+				if(categorical[tables[t].keyAtCol(col)])
+					categoryCols[t][h][c++] = col;
+				else
+					numericCols[t][h][n++] = col;
+			}
+		}
+	}
+
+	private void printResult(){
+
+		for(int m = 0; m < monomials.length; ++m)
+			for(Map.Entry<List<Double>, Double> sum : results.get(m).entrySet())
+				System.out.println("SUM(" + String.join("*", monomials[m]) + ")" + (sum.getKey().isEmpty() ? "" : sum.getKey()) + " = " + sum.getValue());
+
+	}
+
+
+	private void join(){
+
+		clock = joinLoop.run(); //See BlockJoin for the loop itself
+
+		collectResults();
+	}
+
+	/**Aggregates the rows startRow,...,endRow of table t, all of which match the same join keys of the later tables.
+	 * The partial sums of table t+1 hold the sums over the rows joining with startRow, which are the same for the other rows*/
+	private void computeBlock(int t, int startRow, int endRow, double numRows, double timeElapsed){
+
+		SparseSum[] next = partialSums[t+1];
+		next[0].set(timeElapsed);
+
+		computeAggregates(t, startRow, endRow, numRows);
+
+		for(int s = 1; s < next.length; ++s) //Reset for the next block
+			next[s].sums.clear();
+	}
+
+	//PARTIAL_t(M) += SUM(H over the rows) (outer product) PARTIAL_t+1(L), see Join_Utility.prepareMonomials()
+	private void computeAggregates(int t, int startRow, int endRow, double numRows){
+
+		int[][]     catCols = categoryCols[t];
+		int[][]     numCols = numericCols[t];
+		int[]       steps   = data.getMonomialSteps(t);
+		SparseSum[] product = products[t];
+		SparseSum[] sums    = partialSums[t];
+		SparseSum[] next    = partialSums[t+1];
+		Table       table   = tables[t];
+
+		product[0].set(numRows);
+		for(int h = 1; h < product.length; ++h)
+			product[h].sums.clear();
+
+		for(int r = startRow; r <= endRow; ++r){
+			double[] row    = table.getRow(r);
+			double   weight = table.weight(row); //A weighted row counts as weight equal rows
+
+			for(int h = 1; h < product.length; ++h){
+				double value = 1;
+				for(int col : numCols[h])
+					value *= row[col];
+
+				product[h].add(categoriesOf(row, catCols[h]), value*weight);
+			}
+		}
+
+		for(int s = 0; s < steps.length; s += 3)
+			sums[steps[s]].addProduct(product[steps[s+1]], next[steps[s+2]]);
+	}
+
+	private static Categories categoriesOf(double[] row, int[] cols){
+
+		if(cols.length == 0)
+			return NONE;
+
+		double[] values = new double[cols.length];
+		for(int c = 0; c < cols.length; ++c)
+			values[c] = Values.normalize(row[cols[c]]);
+
+		return new Categories(values);
+	}
+
+
+	/**Reads the partial sums of the first table, listing the categories of each sum in the order the categorical
+	 * attributes appear in its monomial*/
+	private void collectResults(){
+
+		int[] appearsAt = new int[categorical.length]; //Table of the join order where each key first appears
+		for(int t = 0; t < tables.length; ++t)
+			for(int key : data.getFirstAppearingKeys(t))
+				appearsAt[key] = t;
+
+		int[] resultSums = data.getMonomialResults();
+
+		for(int m = 0; m < monomials.length; ++m){
+
+			Map<List<Double>, Double> result = new HashMap<List<Double>, Double>();
+			results.add(result);
+
+			if(resultSums[m] == 0){ //The empty product: the number of joined rows
+				if(clock > 0)
+					result.put(new ArrayList<Double>(), (double) clock);
+				continue;
+			}
+
+			//Categorical keys of the monomial, in its own order and in the order of the partial sums
+			List<Integer> own = new ArrayList<Integer>();
+			for(String factor : monomials[m])
+				if(categorical[data.getKey(factor)])
+					own.add(data.getKey(factor));
+
+			Integer[] joinOrdered = own.toArray(new Integer[own.size()]);
+			Arrays.sort(joinOrdered, (k1, k2) -> appearsAt[k1] != appearsAt[k2] ? appearsAt[k1] - appearsAt[k2] : k1 - k2);
+
+			int[] position = new int[own.size()]; //position[i] is where the i-th category of the partial sum goes
+			for(int i = 0; i < joinOrdered.length; ++i)
+				position[i] = own.indexOf(joinOrdered[i]);
+
+			for(Map.Entry<Categories, double[]> sum : partialSums[0][resultSums[m]].sums.entrySet()){
+				Double[] categories = new Double[position.length];
+				for(int i = 0; i < position.length; ++i)
+					categories[position[i]] = sum.getKey().values[i];
+
+				result.put(Arrays.asList(categories), sum.getValue()[0]);
+			}
+		}
+	}
+
+
+	/**Computes the aggregates SUM(X1*...*Xd) over the join, where the categorical attributes among the X's stand for
+	 * the indicators of their categories. Returns a map for each monomial, from the categories of its categorical attributes
+	 * (in the order they appear in the monomial) to the sum for those categories. Only combinations of categories present
+	 * in the join are listed. A monomial without categorical attributes maps the empty list to its sum*/
+	public static List<Map<List<Double>, Double>> runWithoutPrint(Table[] init_tables, String[][] monomials){
+		JoinAlgCategorical algo = new JoinAlgCategorical(init_tables, monomials);
+		algo.join();
+		return algo.results;
+
+	}
+
+	public static List<Map<List<Double>, Double>> run(Table[] init_tables, String[][] monomials){
+		JoinAlgCategorical algo = new JoinAlgCategorical(init_tables, monomials);
+		algo.join();
+		algo.printResult();
+		return algo.results;
+
+	}
+
+}
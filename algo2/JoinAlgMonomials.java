@@ -0,0 +1,143 @@
+package algo2;
+
+/** Algorithm 2 for aggregates of any degree:
+ *
+ * Computes aggregates SUM(X1*X2*...*Xd) over the join, for instance SUM(X*Y*Z) or SUM(X*X*Y*Y) for polynomial regression,
+ * without materializing the join. The join loop is that of algorithm 2; only the aggregates passed up the join differ.
+ *
+ * Instead of the sums SUM(X) and SUM(XY) of algorithm 2, each table keeps a partial sum for each monomial made of the
+ * requested attributes appearing at it or later in the join order. When the rows of a table that match the same join keys
+ * are aggregated as a block, each partial sum is the sum over the block of the part of the monomial first appearing in the
+ * table, times the partial sum of the rest of the monomial at the next table (see Join_Utility.prepareMonomials()).
+ * The partial sums of the later tables are only computed once per block, just like in algorithm 2, so a monomial costs one
+ * product per row of the tables holding its attributes and one multiplication per block of rows of the other tables
+ *
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import table.Join_Utility;
+import table.Table;
+
+public class JoinAlgMonomials {
+
+	private final Table[]         tables;
+	private final Join_Utility    data;
+	private final String[][]      monomials;
+	private final double[]        results;
+	private final double[][]      partialSums; //partialSums[t][s] is partial sum s of table t, partialSums[N][0] = 1
+	private final double[][]      products;    //products[t][h] is the sum of monomial h over the current block of table t
+	private final BlockJoin       joinLoop; //The join loop of algorithm 2, which hands each block of rows to computeBlock()
+	private		  long 			  clock;    //The number of joined rows (not-materialized) computed
+
+
+	private JoinAlgMonomials(Table[] init_tables, String[][] monomials){
+
+		this.data      = new Join_Utility(init_tables, null);
+		this.tables    = data.getJoinOrder();
+		this.monomials = monomials;
+		this.results   = new double[monomials.length];
+
+		data.prepareMonomials(monomials);
+
+		this.partialSums = new double[tables.length + 1][];
+		this.products    = new double[tables.length][];
+
+		for(int t = 0; t <= tables.length; ++t)
+			partialSums[t] = new double[data.getNumPartialSums(t)];
+		for(int t = 0; t < tables.length; ++t)
+			products[t] = new double[data.getMonomialCols(t).length];
+
+		partialSums[tables.length][0] = 1; //Each row of the last table joins with exactly one row "after" it
+
+		this.joinLoop = new BlockJoin(data, new BlockJoin.Aggregator(){
+
+			public void aggregateBlock(int t, int startRow, int endRow, double numRows, double timeElapsed){
+				computeBlock(t, startRow, endRow, numRows, timeElapsed);
+			}
+
+			public void aggregateLastRow(int row, double weight){
+				computeAggregates(tables.length - 1, row, row, weight);
+			}
+		}, new AtomicBoolean());
+	}
+
+	private void printResult(){
+
+		for(int m = 0; m < monomials.length; ++m)
+			System.out.println("SUM(" + String.join("*", monomials[m]) + ") = " + results[m]);
+
+	}
+
+
+	private void join(){
+
+		clock = joinLoop.run(); //See BlockJoin for the loop itself
+
+		int[] resultSums = data.getMonomialResults();
+		for(int m = 0; m < monomials.length; ++m) //Partial sum 0 is the empty product, the number of joined rows
+			results[m] = resultSums[m] == 0 ? clock : partialSums[0][resultSums[m]];
+	}
+
+	/**Aggregates the rows startRow,...,endRow of table t, all of which match the same join keys of the later tables.
+	 * The partial sums of table t+1 hold the sums over the rows joining with startRow, which are the same for the other rows*/
+	private void computeBlock(int t, int startRow, int endRow, double numRows, double timeElapsed){
+
+		double[] next = partialSums[t+1];
+		next[0] = timeElapsed;
+
+		computeAggregates(t, startRow, endRow, numRows);
+
+		Arrays.fill(next, 1, next.length, 0); //Reset for the next block
+	}
+
+	//PARTIAL_t(M) += SUM(H over the rows) * PARTIAL_t+1(L), see Join_Utility.prepareMonomials()
+	private void computeAggregates(int t, int startRow, int endRow, double numRows){
+
+		int[][]  cols    = data.getMonomialCols(t);
+		int[]    steps   = data.getMonomialSteps(t);
+		double[] product = products[t];
+		double[] sums    = partialSums[t];
+		double[] next    = partialSums[t+1];
+		Table    table   = tables[t];
+
+		Arrays.fill(product, 0);
+		product[0] = numRows;
+
+		for(int r = startRow; r <= endRow; ++r){
+			double[] row    = table.getRow(r);
+			double   weight = table.weight(row); //A weighted row counts as weight equal rows
+
+			for(int h = 1; h < cols.length; ++h){
+				double value = 1;
+				for(int col : cols[h])
+					value *= row[col];
+				product[h] += value*weight;
+			}
+		}
+
+		for(int s = 0; s < steps.length; s += 3)
+			sums[steps[s]] += product[steps[s+1]]*next[steps[s+2]];
+	}
+
+
+	/**Computes the aggregates SUM(X1*...*Xd) over the join of the tables, where each monomial lists the attributes it
+	 * multiplies (attributes may repeat). Returns the aggregates in the order of the monomials. The empty monomial
+	 * is the number of rows of the join*/
+	public static double[] runWithoutPrint(Table[] init_tables, String[][] monomials){
+		JoinAlgMonomials algo = new JoinAlgMonomials(init_tables, monomials);
+		algo.join();
+		return algo.results;
+
+	}
+
+	public static double[] run(Table[] init_tables, String[][] monomials){
+		JoinAlgMonomials algo = new JoinAlgMonomials(init_tables, monomials);
+		algo.join();
+		algo.printResult();
+		return algo.results;
+
+	}
+
+}
@@ -0,0 +1,113 @@
+package algo2;
+
+/** Keeps the aggregates SUM(XY) over the join of some tables up to date while rows are inserted into and deleted from
+ * the tables, without running the whole join again.
+ *
+ * The aggregates are sums over the rows of the join, and each row of the join uses exactly one row of each table. Hence if
+ * rows D are inserted into table T, the rows of the join that are new are exactly the join of D with the other tables, and
+ *
+ * 		NEW_SUM(XY) = OLD_SUM(XY) + SUM(XY) over (T1 JOIN ... JOIN D JOIN ... JOIN TN)
+ *
+ * Likewise we subtract the sums over the join of the deleted rows with the other tables. We compute these sums with
+ * algorithm 2, which runs on the (small) delta in place of table T. The planner then starts the join with the delta and
+ * finds the matching rows of every other table with a JoinIterator, by binary search in the sorted layouts cached on them
+ * (see Table.view()), so the join costs about as much as the number of rows of the join it touches.
+ *
+ * The tables are replaced by their changed versions afterwards (see Table.withChanges()). A changed version only
+ * remembers the rows changed, so applying a change to a table of n rows costs O(d log n) for d changed rows, plus
+ * O(sqrt(n)) amortized for compacting the changes. The changed version lays its rows out when a query next reads it,
+ * though, which copies each layout that query reads: O(n) block copies, without comparisons. Consecutive changes to one
+ * table never read it and stay cheap, but a change to another table joins with it and pays that copy once. So when
+ * changes alternate between tables, each change costs O(n) on top of its join.
+ *
+ * The tables may be weighted (see Table.deduplicate()). The rows inserted and deleted are plain rows all the same: the
+ * delta joins as an unweighted table, and each of its rows changes the weight of the weighted row with its values by one.
+ *
+ * For data with integer values, as in the housing data sets, the maintained aggregates are exactly those a full run
+ * of the algorithm would compute, as long as they stay below 2^53.
+ */
+
+import table.Table;
+
+public class MaintainedAggregates {
+
+	private final Table[]    tables;     //Current contents of the tables
+	private final String[][] strAggs;    //The aggregates to maintain, null for all of them
+	private final double[][] aggregates;
+
+
+	public MaintainedAggregates(Table[] init_tables, String[][] strAggs){
+		this.tables     = init_tables.clone();
+		this.strAggs    = strAggs;
+		this.aggregates = JoinAlg2.runWithoutPrint(tables, strAggs);
+	}
+
+	public MaintainedAggregates(Table[] init_tables){
+		this(init_tables, null);
+	}
+
+
+	/**Inserts the rows inserted into and deletes the rows deleted from the table called tableName and updates the aggregates.
+	 * Each deleted row removes one equal row from the table*/
+	public synchronized void apply(String tableName, double[][] inserted, double[][] deleted){
+
+		int t = indexOf(tableName);
+
+		Table changed = tables[t].withChanges(inserted, deleted); //Fails before we touch the aggregates if a deleted row is missing
+
+		if(inserted.length > 0)
+			addJoinWith(t, inserted, 1);
+
+		if(deleted.length > 0)
+			addJoinWith(t, deleted, -1);
+
+		tables[t] = changed;
+	}
+
+	public void insert(String tableName, double[][] rows){
+		apply(tableName, rows, new double[0][]);
+	}
+
+	public void delete(String tableName, double[][] rows){
+		apply(tableName, new double[0][], rows);
+	}
+
+
+	//Adds sign*SUM(XY) over the join of rows with the tables other than table t
+	private void addJoinWith(int t, double[][] rows, int sign){
+
+		Table[] withDelta = tables.clone();
+		withDelta[t] = new Table(rows, tables[t].getSchema(), tables[t].name);
+
+		double[][] delta = JoinAlg2.runWithoutPrint(withDelta, strAggs);
+
+		for(int k1 = 0; k1 < aggregates.length; ++k1)
+			for(int k2 = k1; k2 < aggregates.length; ++k2)
+				aggregates[k1][k2] += sign*delta[k1][k2];
+	}
+
+	private int indexOf(String tableName){
+
+		for(int t = 0; t < tables.length; ++t)
+			if(tables[t].name.equals(tableName))
+				return t;
+
+		throw new IllegalArgumentException("Unknown table " + tableName);
+	}
+
+
+	//Returns a copy of the current aggregates, laid out like the result of JoinAlg2.run()
+	public synchronized double[][] getAggregates(){
+
+		double[][] copy = new double[aggregates.length][];
+		for(int k = 0; k < aggregates.length; ++k)
+			copy[k] = aggregates[k].clone();
+
+		return copy;
+	}
+
+	public synchronized Table getTable(String tableName){
+		return tables[indexOf(tableName)];
+	}
+
+}
@@ -0,0 +1,237 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**The measurements of a BenchmarkRunner run, written to and read back from JSON so that a later run can be compared
+ * with it. The file is an object with some facts about the machine and a "results" array holding one flat object per
+ * measurement, one per line:
+ *
+ * 	{"scale": 3, "engine": "JoinAlg2", "aggregates": "all", "threads": 4, "runs": 5, "loadMillis": 812.4, ...}
+ *
+ * Only what this class writes needs to be read, so the reader handles flat objects of strings and numbers and no more
+ */
+
+public class BenchmarkReport {
+
+	/**Timings of one engine computing one aggregate selection on one dataset with some number of concurrent queries*/
+	public static class Measurement{
+
+		public final int    scale;
+		public final String engine;
+		public final String aggregates;
+		public final int    threads;
+		public final int    runs;
+		public final double loadMillis;      //Reading or generating the tables
+		public final double prepareMillis;   //Planning the join and sorting the tables, before any caches exist
+		public final double joinMillis;      //Mean time of a query once the sorted layouts are cached
+		public final double joinDeviation;
+		public final double joinMinMillis;
+		public final double queriesPerSecond;
+
+		public Measurement(int scale, String engine, String aggregates, int threads, int runs, double loadMillis,
+						   double prepareMillis, double joinMillis, double joinDeviation, double joinMinMillis,
+						   double queriesPerSecond){
+			this.scale            = scale;
+			this.engine           = engine;
+			this.aggregates       = aggregates;
+			this.threads          = threads;
+			this.runs             = runs;
+			this.loadMillis       = loadMillis;
+			this.prepareMillis    = prepareMillis;
+			this.joinMillis       = joinMillis;
+			this.joinDeviation    = joinDeviation;
+			this.joinMinMillis    = joinMinMillis;
+			this.queriesPerSecond = queriesPerSecond;
+		}
+
+		//Measurements of two runs with the same id are compared
+		public String id(){
+			return engine + " scale=" + scale + " aggregates=" + aggregates + " threads=" + threads;
+		}
+
+		String toJson(){
+			return String.format(Locale.ROOT, "{\"scale\": %d, \"engine\": %s, \"aggregates\": %s, \"threads\": %d, \"runs\": %d, "
+					+ "\"loadMillis\": %.3f, \"prepareMillis\": %.3f, \"joinMillis\": %.3f, \"joinDeviation\": %.3f, "
+					+ "\"joinMinMillis\": %.3f, \"queriesPerSecond\": %.3f}", scale, quote(engine), quote(aggregates), threads,
+					runs, loadMillis, prepareMillis, joinMillis, joinDeviation, joinMinMillis, queriesPerSecond);
+		}
+
+		static Measurement fromJson(Map<String, String> fields){
+			return new Measurement((int) number(fields, "scale"), fields.get("engine"), fields.get("aggregates"),
+					(int) number(fields, "threads"), (int) number(fields, "runs"), number(fields, "loadMillis"),
+					number(fields, "prepareMillis"), number(fields, "joinMillis"), number(fields, "joinDeviation"),
+					number(fields, "joinMinMillis"), number(fields, "queriesPerSecond"));
+		}
+
+		private static double number(Map<String, String> fields, String name){
+			String value = fields.get(name);
+			return value != null ? Double.parseDouble(value) : Double.NaN;
+		}
+	}
+
+
+	private final List<Measurement> measurements = new ArrayList<Measurement>();
+
+
+	public void add(Measurement measurement){
+		measurements.add(measurement);
+	}
+
+	public List<Measurement> getMeasurements(){
+		return Collections.unmodifiableList(measurements);
+	}
+
+	public void write(Path file) throws IOException{
+
+		StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		json.append("  \"javaVersion\": ").append(quote(System.getProperty("java.version"))).append(",\n");
+		json.append("  \"processors\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+		json.append("  \"maxHeapBytes\": ").append(Runtime.getRuntime().maxMemory()).append(",\n");
+		json.append("  \"results\": [\n");
+
+		for(int m = 0; m < measurements.size(); ++m)
+			json.append("    ").append(measurements.get(m).toJson()).append(m + 1 < measurements.size() ? ",\n" : "\n");
+
+		json.append("  ]\n}\n");
+
+		Files.write(file, json.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	public static BenchmarkReport read(Path file) throws IOException{
+
+		String json = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+		int results = json.indexOf("\"results\"");
+		if(results < 0)
+			throw new IOException(file + " holds no benchmark results");
+
+		BenchmarkReport report = new BenchmarkReport();
+
+		int pos = json.indexOf('[', results) + 1;
+		while(true){
+			pos = skipWhitespace(json, pos);
+			if(pos >= json.length() || json.charAt(pos) == ']')
+				break;
+			if(json.charAt(pos) == ','){
+				++pos;
+				continue;
+			}
+
+			Map<String, String> fields = new LinkedHashMap<String, String>();
+			pos = readObject(json, pos, fields);
+			report.add(Measurement.fromJson(fields));
+		}
+
+		return report;
+	}
+
+
+	/**Compares the join and prepare times of this report with the ones of baseline measured with the same engine, scale,
+	 * aggregates and threads. A time more than tolerance (0.1 is 10%) above its baseline is flagged as a slowdown.
+	 * Prints one line per compared measurement and returns the number of slowdowns*/
+	public int compare(BenchmarkReport baseline, double tolerance){
+
+		Map<String, Measurement> before = new LinkedHashMap<String, Measurement>();
+		for(Measurement measurement : baseline.measurements)
+			before.put(measurement.id(), measurement);
+
+		int slowdowns = 0;
+
+		for(Measurement after : measurements){
+			Measurement old = before.get(after.id());
+			if(old == null){
+				System.out.println(String.format("%-60s  not in baseline", after.id()));
+				continue;
+			}
+
+			boolean joinSlower    = after.joinMillis    > old.joinMillis*(1 + tolerance);
+			boolean prepareSlower = after.prepareMillis > old.prepareMillis*(1 + tolerance);
+
+			System.out.println(String.format(Locale.ROOT, "%-60s  join %10.2f -> %10.2f ms (%+6.1f%%)  prepare %10.2f -> %10.2f ms (%+6.1f%%)%s",
+					after.id(), old.joinMillis, after.joinMillis, change(old.joinMillis, after.joinMillis),
+					old.prepareMillis, after.prepareMillis, change(old.prepareMillis, after.prepareMillis),
+					joinSlower || prepareSlower ? "  SLOWER" : ""));
+
+			if(joinSlower || prepareSlower)
+				++slowdowns;
+		}
+
+		return slowdowns;
+	}
+
+	private static double change(double before, double after){
+		return before > 0 ? 100*(after - before)/before : 0;
+	}
+
+
+	//Reads the flat object starting at pos into fields and returns the position after it
+	private static int readObject(String json, int pos, Map<String, String> fields) throws IOException{
+
+		if(json.charAt(pos) != '{')
+			throw new IOException("Expected an object at character " + pos);
+		++pos;
+
+		while(true){
+			pos = skipWhitespace(json, pos);
+			char c = json.charAt(pos);
+
+			if(c == '}')
+				return pos + 1;
+			if(c == ','){
+				++pos;
+				continue;
+			}
+
+			StringBuilder name = new StringBuilder();
+			pos = readString(json, pos, name);
+			pos = skipWhitespace(json, pos);
+			if(json.charAt(pos) != ':')
+				throw new IOException("Expected ':' at character " + pos);
+			pos = skipWhitespace(json, pos + 1);
+
+			StringBuilder value = new StringBuilder();
+			if(json.charAt(pos) == '"')
+				pos = readString(json, pos, value);
+			else
+				while(pos < json.length() && ",} \t\r\n".indexOf(json.charAt(pos)) < 0)
+					value.append(json.charAt(pos++));
+
+			fields.put(name.toString(), value.toString());
+		}
+	}
+
+	private static int readString(String json, int pos, StringBuilder string) throws IOException{
+
+		if(json.charAt(pos) != '"')
+			throw new IOException("Expected a string at character " + pos);
+
+		for(++pos; json.charAt(pos) != '"'; ++pos){
+			char c = json.charAt(pos);
+			if(c == '\\')
+				c = json.charAt(++pos);
+			string.append(c);
+		}
+
+		return pos + 1;
+	}
+
+	private static int skipWhitespace(String json, int pos){
+		while(pos < json.length() && Character.isWhitespace(json.charAt(pos)))
+			++pos;
+		return pos;
+	}
+
+	private static String quote(String string){
+		return "\"" + string.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+}
@@ -0,0 +1,310 @@
+package bench;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import algo1.JoinAlg;
+import algo1.JoinAlgNaive;
+import algo2.JoinAlg2;
+import table.Join_Utility;
+import table.Table;
+import table.Tests;
+
+/**Runs the three engines end to end over datasets of growing scale, aggregate selections and numbers of concurrent
+ * queries, and reports the time of each phase separately:
+ *
+ * 	load     reading the tables of the dataset
+ * 	prepare  planning the join and sorting each table on its join columns, starting from empty layout caches. The engines
+ * 	         take the sorted layouts from the cache afterwards, see Table.getSortedLayout()
+ * 	join     running the engine once the layouts are cached, warmup runs excluded. With t threads, t copies of the query
+ * 	         run at the same time and every copy is timed
+ *
+ * The measurements are printed and may be written as JSON and compared with the JSON of an earlier run, flagging every
+ * join or prepare time that got slower than the tolerance allows. The process then exits with status 2.
+ *
+ * Usage: java bench.BenchmarkRunner --data DIR [options], where DIR holds the datasets housing-1, housing-2, ...
+ *        java bench.BenchmarkRunner --generate housing|star|snowflake [options], generating each scale in memory
+ *
+ * 	--scales 1,2,5            datasets to run on
+ * 	--engines naive,alg1,alg2 engines to run
+ * 	--aggregates all;a*b,c*d  aggregate selections separated by ';'. all computes every aggregate, otherwise a selection is
+ * 	                          a list of pairs of attributes
+ * 	--threads 1,4             numbers of concurrent queries
+ * 	--runs 5 --warmup 1       measured and discarded runs of each query
+ * 	--out FILE                writes the measurements as JSON
+ * 	--baseline FILE           compares the measurements with an earlier JSON output
+ * 	--tolerance 0.1           slowdown allowed before a time is flagged
+ * 	--postcodes 1000 --skew 0 --dangling 0 --seed 42  parameters of the generated data, see DataGenerator.ofKind()
+ */
+
+public class BenchmarkRunner {
+
+	public enum Engine{
+		NAIVE("JoinAlgNaive"), ALG1("JoinAlg"), ALG2("JoinAlg2");
+
+		private final String name;
+
+		Engine(String name){
+			this.name = name;
+		}
+
+		//aggregates may be null, in which case all aggregates are computed
+		public double[][] run(Table[] tables, String[][] aggregates){
+			switch(this){
+				case NAIVE: return JoinAlgNaive.runWithoutPrint(tables, aggregates);
+				case ALG1:  return JoinAlg.runWithoutPrint(tables, aggregates);
+				default:    return JoinAlg2.runWithoutPrint(tables, aggregates);
+			}
+		}
+
+		public String getName(){
+			return name;
+		}
+
+		static Engine parse(String engine){
+			switch(engine.toLowerCase(Locale.ROOT)){
+				case "naive": case "joinalgnaive": return NAIVE;
+				case "alg1":  case "joinalg":      return ALG1;
+				case "alg2":  case "joinalg2":     return ALG2;
+				default: throw new IllegalArgumentException("Unknown engine " + engine + ", use naive, alg1 or alg2");
+			}
+		}
+	}
+
+	private String         dataPath;
+	private String         generate;  //Kind of schema to generate instead of reading the data from dataPath
+	private int            postcodes  = 1000;
+	private double         skew;
+	private double         dangling;
+	private long           seed       = 42;
+	private int[]          scales     = { 1 };
+	private List<Engine>   engines    = new ArrayList<Engine>();
+	private List<String>   selections = new ArrayList<String>(); //Labels of the aggregate selections, see parseAggregates()
+	private int[]          threads    = { 1 };
+	private int            runs       = 5;
+	private int            warmup     = 1;
+	private String         out;
+	private String         baseline;
+	private double         tolerance  = 0.1;
+
+
+	/**Runs every combination of the options and returns the measurements*/
+	public BenchmarkReport run() throws InterruptedException, ExecutionException{
+
+		BenchmarkReport report = new BenchmarkReport();
+
+		for(int scale : scales){
+
+			long start = System.nanoTime();
+			Table[] tables = load(scale);
+			double loadMillis = millisSince(start);
+
+			System.out.println(String.format(Locale.ROOT, "scale %d loaded in %.1f ms", scale, loadMillis));
+
+			for(String selection : selections){
+				String[][] aggregates = parseAggregates(selection);
+
+				for(Engine engine : engines){
+					double prepareMillis = prepare(tables, aggregates);
+
+					for(int t : threads){
+						BenchmarkReport.Measurement measurement = join(engine, tables, aggregates, t, scale, selection, loadMillis, prepareMillis);
+						report.add(measurement);
+
+						System.out.println(String.format(Locale.ROOT, "%-60s  prepare %10.2f ms  join %10.2f ms +- %8.2f  %8.2f queries/s",
+								measurement.id(), prepareMillis, measurement.joinMillis, measurement.joinDeviation, measurement.queriesPerSecond));
+					}
+				}
+			}
+		}
+
+		return report;
+	}
+
+	private Table[] load(int scale){
+		if(generate != null)
+			return DataGenerator.ofKind(generate, seed, scale, postcodes).skew(skew).dangling(dangling).build();
+		return Tests.loadRelations(dataPath.endsWith("/") ? dataPath : dataPath + "/", scale);
+	}
+
+	/**Empties the sorted layout caches, then plans the join and sorts each table as its iterator will. Returns the time
+	 * this took in milliseconds*/
+	private double prepare(Table[] tables, String[][] aggregates){
+
+		for(Table table : tables)
+			table.clearSortedLayouts();
+
+		long start = System.nanoTime();
+
+		Join_Utility data  = new Join_Utility(tables, aggregates);
+		Table[]      order = data.getJoinOrder();
+
+		for(int t = 0; t < order.length; ++t)
+			order[t].getSortedLayout(data.getSortCols(t));
+
+		return millisSince(start);
+	}
+
+	private BenchmarkReport.Measurement join(final Engine engine, final Table[] tables, final String[][] aggregates, int numThreads,
+											 int scale, String selection, double loadMillis, double prepareMillis)
+											 throws InterruptedException, ExecutionException{
+
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+
+		try{
+			for(int run = 0; run < warmup; ++run)
+				concurrently(executor, engine, tables, aggregates, numThreads);
+
+			double[] millis = new double[runs*numThreads];
+			long     start  = System.nanoTime();
+
+			for(int run = 0; run < runs; ++run){
+				double[] times = concurrently(executor, engine, tables, aggregates, numThreads);
+				System.arraycopy(times, 0, millis, run*numThreads, numThreads);
+			}
+
+			double totalMillis = millisSince(start);
+
+			double mean = 0, min = Double.POSITIVE_INFINITY, squares = 0;
+			for(double time : millis){
+				mean += time/millis.length;
+				min   = Math.min(min, time);
+			}
+			for(double time : millis)
+				squares += (time - mean)*(time - mean);
+
+			double deviation = millis.length > 1 ? Math.sqrt(squares/(millis.length - 1)) : 0;
+
+			return new BenchmarkReport.Measurement(scale, engine.getName(), selection, numThreads, runs, loadMillis,
+					prepareMillis, mean, deviation, min, 1000*millis.length/totalMillis);
+		}
+		finally{
+			executor.shutdown();
+		}
+	}
+
+	//Runs numThreads copies of the query at once and returns the time each took in milliseconds
+	private static double[] concurrently(ExecutorService executor, final Engine engine, final Table[] tables,
+										 final String[][] aggregates, int numThreads) throws InterruptedException, ExecutionException{
+
+		List<Future<Double>> queries = new ArrayList<Future<Double>>();
+		for(int t = 0; t < numThreads; ++t)
+			queries.add(executor.submit(() -> {
+				long start = System.nanoTime();
+				engine.run(tables, aggregates);
+				return millisSince(start);
+			}));
+
+		double[] millis = new double[numThreads];
+		for(int t = 0; t < numThreads; ++t)
+			millis[t] = queries.get(t).get();
+
+		return millis;
+	}
+
+	private static double millisSince(long start){
+		return (System.nanoTime() - start)/1e6;
+	}
+
+
+	/**Turns a selection like "a*b,c*d" into the aggregates {{a, b}, {c, d}}. "all" gives null, every aggregate*/
+	static String[][] parseAggregates(String selection){
+
+		if(selection.equals("all"))
+			return null;
+
+		String[]   pairs      = selection.split(",");
+		String[][] aggregates = new String[pairs.length][];
+
+		for(int p = 0; p < pairs.length; ++p){
+			aggregates[p] = pairs[p].trim().split("\\*");
+			if(aggregates[p].length != 2)
+				throw new IllegalArgumentException("An aggregate is written as two attributes joined by '*', not " + pairs[p]);
+		}
+
+		return aggregates;
+	}
+
+	private static int[] parseInts(String list){
+		String[] values = list.split(",");
+		int[] ints = new int[values.length];
+		for(int v = 0; v < values.length; ++v)
+			ints[v] = Integer.parseInt(values[v].trim());
+		return ints;
+	}
+
+	private void parseArguments(String[] args){
+
+		for(int a = 0; a < args.length; a += 2){
+			if(a + 1 == args.length)
+				throw new IllegalArgumentException("The option " + args[a] + " has no value");
+
+			String value = args[a + 1];
+
+			switch(args[a]){
+				case "--data":       dataPath  = value;                      break;
+				case "--generate":   generate  = value;                      break;
+				case "--postcodes":  postcodes = Integer.parseInt(value);    break;
+				case "--skew":       skew      = Double.parseDouble(value);  break;
+				case "--dangling":   dangling  = Double.parseDouble(value);  break;
+				case "--seed":       seed      = Long.parseLong(value);      break;
+				case "--scales":     scales    = parseInts(value);           break;
+				case "--threads":    threads   = parseInts(value);           break;
+				case "--runs":       runs      = Integer.parseInt(value);    break;
+				case "--warmup":     warmup    = Integer.parseInt(value);    break;
+				case "--out":        out       = value;                      break;
+				case "--baseline":   baseline  = value;                      break;
+				case "--tolerance":  tolerance = Double.parseDouble(value);  break;
+				case "--engines":
+					for(String engine : value.split(","))
+						engines.add(Engine.parse(engine.trim()));
+					break;
+				case "--aggregates":
+					for(String selection : value.split(";")){
+						parseAggregates(selection.trim()); //Fail now rather than after loading the data
+						selections.add(selection.trim());
+					}
+					break;
+				default: throw new IllegalArgumentException("Unknown option " + args[a]);
+			}
+		}
+
+		if(dataPath == null && generate == null)
+			throw new IllegalArgumentException("Give the directory holding the datasets with --data, or the schema to generate with --generate");
+		if(runs < 1)
+			throw new IllegalArgumentException("At least one run must be measured");
+
+		if(engines.isEmpty())
+			for(Engine engine : Engine.values())
+				engines.add(engine);
+		if(selections.isEmpty())
+			selections.add("all");
+	}
+
+
+	public static void main(String[] args) throws Exception{
+
+		BenchmarkRunner runner = new BenchmarkRunner();
+		runner.parseArguments(args);
+
+		BenchmarkReport report = runner.run();
+
+		if(runner.out != null)
+			report.write(Paths.get(runner.out));
+
+		if(runner.baseline != null){
+			int slowdowns = report.compare(BenchmarkReport.read(Paths.get(runner.baseline)), runner.tolerance);
+			System.out.println(slowdowns + " slowdown" + (slowdowns == 1 ? "" : "s") + " beyond " + Math.round(100*runner.tolerance) + "%");
+
+			if(slowdowns > 0)
+				System.exit(2);
+		}
+	}
+
+}
@@ -0,0 +1,346 @@
+package bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import table.Table;
+
+/**Generates synthetic databases for scale testing, the same for the same seed. A database is a list of tables joined
+ * naturally on their key attributes. Each key attribute has a domain 0,...,size-1, and a table holds it either as
+ *
+ * 	primary key  one row for each value of the domain, so the table has as many rows as the domain
+ * 	foreign key  values drawn from the domain by a Zipf distribution of exponent skew (0 is uniform). A fraction
+ * 	             dangling of them is drawn from outside the domain instead and matches no primary key
+ *
+ * The other attributes are drawn uniformly from 0,...,values-1. Attribute names must be unique across the tables since
+ * the join matches attributes by name.
+ *
+ * housing() is the six table schema of the housing datasets (see Tests.loadRelations()), star() and snowflake() are the
+ * classic warehouse schemas. The tables are built in memory by build() or written as '|' separated .tbl files by write(),
+ * which Table.getTable() reads back.
+ *
+ * Usage: java bench.DataGenerator housing|star|snowflake DIR [--scales 1,10] [--postcodes 1000] [--skew 0]
+ * 		  [--dangling 0] [--seed 42]
+ * writes the database of each scale to DIR/housing-N (star-N, snowflake-N)
+ */
+
+public class DataGenerator {
+
+	/**A table to generate, its columns in the order they are added*/
+	public class TableSpec{
+
+		private final String        name;
+		private       int           rows;
+		private       String        primaryKey;
+		private final List<String>  columns    = new ArrayList<String>();
+		private final List<Integer> values     = new ArrayList<Integer>(); //Values of each attribute, -1 for a foreign key
+
+		private TableSpec(String name, int rows){
+			this.name = name;
+			this.rows = rows;
+		}
+
+		/**Makes key the first column, holding each value of its domain once. The table gets as many rows as the domain*/
+		public TableSpec primaryKey(String key){
+
+			if(primaryKey != null)
+				throw new IllegalArgumentException(name + " already has the primary key " + primaryKey);
+
+			primaryKey = key;
+			rows       = domain(key);
+			columns.add(0, key);
+			values.add(0, -1);
+			return this;
+		}
+
+		public TableSpec foreignKey(String key){
+			domain(key); //Fails if the domain was not declared
+			columns.add(key);
+			values.add(-1);
+			return this;
+		}
+
+		public TableSpec attribute(String attribute, int numValues){
+			if(numValues < 1)
+				throw new IllegalArgumentException(attribute + " needs at least one value");
+			columns.add(attribute);
+			values.add(numValues);
+			return this;
+		}
+
+		public TableSpec attributes(int numValues, String... attributes){
+			for(String attribute : attributes)
+				attribute(attribute, numValues);
+			return this;
+		}
+
+		public String getName(){
+			return name;
+		}
+
+		public String[] getSchema(){
+			return columns.toArray(new String[columns.size()]);
+		}
+
+		private double[][] generate(Random random){
+
+			double[][] table = new double[rows][columns.size()];
+
+			for(int c = 0; c < columns.size(); ++c){
+				String column = columns.get(c);
+
+				if(column.equals(primaryKey))
+					for(int r = 0; r < rows; ++r)
+						table[r][c] = r;
+
+				else if(values.get(c) < 0){ //Foreign key
+					int  size = domain(column);
+					Zipf zipf = zipf(column);
+
+					for(int r = 0; r < rows; ++r)
+						table[r][c] = random.nextDouble() < dangling ? size + random.nextInt(size) : zipf.sample(random);
+				}
+
+				else
+					for(int r = 0; r < rows; ++r)
+						table[r][c] = random.nextInt(values.get(c));
+			}
+
+			return table;
+		}
+	}
+
+
+	private final long                   seed;
+	private       double                 skew;
+	private       double                 dangling;
+	private final Map<String, Integer>   domains = new LinkedHashMap<String, Integer>();
+	private final Map<String, Zipf>      zipfs   = new HashMap<String, Zipf>();
+	private final List<TableSpec>        tables  = new ArrayList<TableSpec>();
+
+
+	public DataGenerator(long seed){
+		this.seed = seed;
+	}
+
+	//Exponent of the Zipf distribution of the foreign keys, 0 draws them uniformly
+	public DataGenerator skew(double skew){
+		if(skew < 0)
+			throw new IllegalArgumentException("The skew must not be negative");
+		this.skew = skew;
+		zipfs.clear();
+		return this;
+	}
+
+	//Fraction of the foreign keys that match no primary key
+	public DataGenerator dangling(double dangling){
+		if(dangling < 0 || dangling > 1)
+			throw new IllegalArgumentException("The fraction of dangling keys must be between 0 and 1");
+		this.dangling = dangling;
+		return this;
+	}
+
+	public DataGenerator domain(String key, int size){
+		if(size < 1)
+			throw new IllegalArgumentException("The domain of " + key + " needs at least one value");
+		domains.put(key, size);
+		zipfs.remove(key);
+		return this;
+	}
+
+	/**Adds a table of rows rows, whose columns are then added to the returned spec. A table with a primary key gets
+	 * its number of rows from the key's domain instead*/
+	public TableSpec table(String name, int rows){
+		TableSpec table = new TableSpec(name, rows);
+		tables.add(table);
+		return table;
+	}
+
+	private int domain(String key){
+		Integer size = domains.get(key);
+		if(size == null)
+			throw new IllegalArgumentException("No domain was declared for the key " + key);
+		return size;
+	}
+
+	private Zipf zipf(String key){
+		Zipf zipf = zipfs.get(key);
+		if(zipf == null){
+			zipf = new Zipf(domain(key), skew);
+			zipfs.put(key, zipf);
+		}
+		return zipf;
+	}
+
+	//Each table has its own random source, so a table does not change when the tables before it change size
+	private Random random(int table){
+		return new Random(seed*31 + table);
+	}
+
+
+	/**Builds the tables in memory, in the order they were added*/
+	public Table[] build(){
+
+		Table[] built = new Table[tables.size()];
+		for(int t = 0; t < built.length; ++t){
+			TableSpec spec = tables.get(t);
+			built[t] = new Table(spec.generate(random(t)), spec.getSchema(), spec.getName());
+		}
+
+		return built;
+	}
+
+	/**Writes each table to dir/name.tbl, one row per line with its values separated by '|', creating dir if needed.
+	 * Tests.loadRelations() reads the housing schema back*/
+	public void write(Path dir) throws IOException{
+
+		Files.createDirectories(dir);
+
+		for(int t = 0; t < tables.size(); ++t){
+			TableSpec  spec  = tables.get(t);
+			double[][] table = spec.generate(random(t));
+
+			try(BufferedWriter writer = Files.newBufferedWriter(dir.resolve(spec.getName() + ".tbl"), StandardCharsets.UTF_8)){
+				for(double[] row : table){
+					for(int c = 0; c < row.length; ++c){
+						if(c > 0)
+							writer.write('|');
+						writer.write(Long.toString((long) row[c])); //All values are integers
+					}
+					writer.newLine();
+				}
+			}
+		}
+	}
+
+
+	/**The housing schema: House, Shop, Institution and Restaurant hold on average scale rows per postcode, Demographics
+	 * and Transport one row per postcode*/
+	public static DataGenerator housing(long seed, int scale, int postcodes){
+
+		DataGenerator generator = new DataGenerator(seed).domain("postcode", postcodes);
+		int rows = scale*postcodes;
+
+		generator.table("House", rows).foreignKey("postcode")
+			.attribute("livingarea", 500).attribute("price", 1000).attribute("nbbedrooms", 8).attribute("nbbathrooms", 4)
+			.attribute("kitchensize", 50).attributes(2, "house", "flat", "condo", "garden", "parking");
+
+		generator.table("Shop", rows).foreignKey("postcode")
+			.attribute("openinghoursshop", 24).attribute("pricerangeshop", 5).attributes(2, "sainsburys", "tesco", "ms");
+
+		generator.table("Institution", rows).foreignKey("postcode")
+			.attribute("typeeducation", 5).attribute("sizeinstitution", 100);
+
+		generator.table("Restaurant", rows).foreignKey("postcode")
+			.attribute("openinghoursrest", 24).attribute("pricerangerest", 5);
+
+		generator.table("Demographics", 0).primaryKey("postcode")
+			.attribute("averagesalary", 100).attribute("crimesperyear", 1000).attribute("unemployment", 100).attribute("nbhospitals", 5);
+
+		generator.table("Transport", 0).primaryKey("postcode")
+			.attribute("nbbuslines", 20).attribute("nbtrainstations", 5).attribute("distancecitycentre", 100);
+
+		return generator;
+	}
+
+	/**A fact table of factRows rows referencing numDimensions dimension tables of dimensionRows rows each. Every table
+	 * has numAttributes attributes of 100 values. The fact table is first, then dimension d1, d2, ...*/
+	public static DataGenerator star(long seed, int factRows, int numDimensions, int dimensionRows, int numAttributes){
+		return snowflake(seed, factRows, numDimensions, 1, dimensionRows, numAttributes);
+	}
+
+	/**Same as star(), except that each dimension is a chain of depth tables: dimension di references di_2, which
+	 * references di_3 and so on. A depth of 1 is the star schema*/
+	public static DataGenerator snowflake(long seed, int factRows, int numDimensions, int depth, int dimensionRows, int numAttributes){
+
+		if(depth < 1)
+			throw new IllegalArgumentException("A dimension is at least one table deep");
+
+		DataGenerator generator = new DataGenerator(seed);
+		TableSpec     fact      = generator.table("Fact", factRows);
+
+		for(int d = 1; d <= numDimensions; ++d){
+			for(int level = 1; level <= depth; ++level)
+				generator.domain(dimensionKey(d, level), dimensionRows);
+			fact.foreignKey(dimensionKey(d, 1));
+		}
+		fact.attributes(100, attributeNames("fact", numAttributes));
+
+		for(int d = 1; d <= numDimensions; ++d)
+			for(int level = 1; level <= depth; ++level){
+				String    name      = "d" + d + (level > 1 ? "_" + level : "");
+				TableSpec dimension = generator.table(name, 0).primaryKey(dimensionKey(d, level));
+
+				if(level < depth)
+					dimension.foreignKey(dimensionKey(d, level + 1));
+				dimension.attributes(100, attributeNames(name, numAttributes));
+			}
+
+		return generator;
+	}
+
+	private static String dimensionKey(int dimension, int level){
+		return "d" + dimension + (level > 1 ? "_" + level : "") + "key";
+	}
+
+	private static String[] attributeNames(String table, int numAttributes){
+		String[] names = new String[numAttributes];
+		for(int a = 0; a < numAttributes; ++a)
+			names[a] = table + "_a" + a;
+		return names;
+	}
+
+
+	/**Builds the database of the given kind at the given scale. Housing has postcodes postcodes, the star and snowflake
+	 * schemas have a fact table of scale*postcodes rows and dimensions of postcodes rows*/
+	public static DataGenerator ofKind(String kind, long seed, int scale, int postcodes){
+		switch(kind){
+			case "housing":   return housing(seed, scale, postcodes);
+			case "star":      return star(seed, scale*postcodes, 4, postcodes, 3);
+			case "snowflake": return snowflake(seed, scale*postcodes, 3, 2, postcodes, 3);
+			default: throw new IllegalArgumentException("Unknown schema " + kind + ", use housing, star or snowflake");
+		}
+	}
+
+
+	public static void main(String[] args) throws IOException{
+
+		if(args.length < 2)
+			throw new IllegalArgumentException("Usage: DataGenerator housing|star|snowflake DIR [--scales 1,10] [--postcodes 1000] "
+											 + "[--skew 0] [--dangling 0] [--seed 42]");
+
+		String kind      = args[0];
+		Path   dir       = Paths.get(args[1]);
+		String scales    = "1";
+		int    postcodes = 1000;
+		double skew      = 0, dangling = 0;
+		long   seed      = 42;
+
+		for(int a = 2; a + 1 < args.length; a += 2)
+			switch(args[a]){
+				case "--scales":    scales    = args[a + 1];                     break;
+				case "--postcodes": postcodes = Integer.parseInt(args[a + 1]);   break;
+				case "--skew":      skew      = Double.parseDouble(args[a + 1]); break;
+				case "--dangling":  dangling  = Double.parseDouble(args[a + 1]); break;
+				case "--seed":      seed      = Long.parseLong(args[a + 1]);     break;
+				default: throw new IllegalArgumentException("Unknown option " + args[a]);
+			}
+
+		for(String scale : scales.split(",")){
+			Path out = dir.resolve(kind + "-" + scale.trim());
+			ofKind(kind, seed, Integer.parseInt(scale.trim()), postcodes).skew(skew).dangling(dangling).write(out);
+			System.out.println("Wrote " + out);
+		}
+	}
+
+}
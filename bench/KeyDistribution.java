@@ -0,0 +1,50 @@
+package bench;
+
+import java.util.Random;
+
+/**Distributions of join key values for the synthetic benchmark tables. The distribution of the keys decides how the
+ * hot paths behave: how long the runs of equal keys are that algorithm 2 skips, how often an iterator's cached start
+ * row can be reused and how deep binary searches go
+ */
+
+public enum KeyDistribution {
+
+	UNIFORM,      //Each value of the domain equally likely
+	ZIPFIAN,      //Skewed, a few values hold most rows (Zipf exponent 1)
+	ALL_DISTINCT, //Every row has its own value
+	ALL_EQUAL;    //Every row has the same value
+
+	/**Returns n keys drawn from the values 0,...,domain-1. ALL_DISTINCT ignores the domain and returns a permutation
+	 * of 0,...,n-1*/
+	public double[] keys(int n, int domain, Random random){
+
+		double[] keys = new double[n];
+
+		switch(this){
+			case UNIFORM:
+				for(int r = 0; r < n; ++r)
+					keys[r] = random.nextInt(domain);
+				break;
+
+			case ZIPFIAN:
+				Zipf zipf = new Zipf(domain, 1);
+				for(int r = 0; r < n; ++r)
+					keys[r] = zipf.sample(random);
+				break;
+
+			case ALL_DISTINCT:
+				for(int r = 0; r < n; ++r)
+					keys[r] = r;
+				for(int r = n - 1; r > 0; --r){ //Shuffle
+					int other = random.nextInt(r + 1);
+					double swap = keys[r]; keys[r] = keys[other]; keys[other] = swap;
+				}
+				break;
+
+			default: //ALL_EQUAL, the array is already all zeros
+		}
+
+		return keys;
+	}
+
+}
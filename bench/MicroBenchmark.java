@@ -0,0 +1,127 @@
+package bench;
+
+/**A piece of code timed in isolation, in the spirit of a JMH benchmark.
+ *
+ * measure() first runs warmup iterations whose times are thrown away, so that the JIT has compiled the hot path before
+ * we time it. Each iteration calls setUp() and then invoke() over and over until at least ITERATION_NANOS have been
+ * spent in invoke(). Only invoke() is timed, so work that must be redone before every invocation goes in setUp().
+ * invoke() returns a value computed from its work, which is consumed so that the JIT cannot remove the work as dead code
+ */
+
+public abstract class MicroBenchmark {
+
+	public static final int  WARMUP_ITERATIONS  = 5;
+	public static final int  MEASURE_ITERATIONS = 10;
+	public static final long ITERATION_NANOS    = 200_000_000L;
+
+	private static volatile double sink; //Consumes the results of invoke()
+
+	private final String name;
+	private final int    opsPerInvocation; //invoke() may perform many operations, the results are reported per operation
+
+
+	protected MicroBenchmark(String name, int opsPerInvocation){
+		this.name             = name;
+		this.opsPerInvocation = opsPerInvocation;
+	}
+
+	//Untimed preparation before each call of invoke()
+	protected void setUp(){
+	}
+
+	//The timed work. Returns a value depending on the work done
+	protected abstract double invoke();
+
+
+	/**Runs the benchmark and returns its result. warmup and iterations are the numbers of iterations to throw away and
+	 * to time*/
+	public Result measure(int warmup, int iterations){
+
+		for(int it = 0; it < warmup; ++it)
+			iteration();
+
+		double[] nanosPerOp = new double[iterations];
+		for(int it = 0; it < iterations; ++it)
+			nanosPerOp[it] = iteration();
+
+		return new Result(name, nanosPerOp);
+	}
+
+	public Result measure(){
+		return measure(WARMUP_ITERATIONS, MEASURE_ITERATIONS);
+	}
+
+	//Returns the nanoseconds per operation of one iteration
+	private double iteration(){
+
+		long   elapsed = 0, ops = 0;
+		double result  = 0;
+
+		while(elapsed < ITERATION_NANOS){
+			setUp();
+
+			long start = System.nanoTime();
+			result += invoke();
+			elapsed += System.nanoTime() - start;
+
+			ops += opsPerInvocation;
+		}
+
+		sink = result;
+		return (double) elapsed/ops;
+	}
+
+	public String getName(){
+		return name;
+	}
+
+
+	/**The times per operation of the measured iterations*/
+	public static class Result{
+
+		private final String   name;
+		private final double[] nanosPerOp;
+
+		Result(String name, double[] nanosPerOp){
+			this.name       = name;
+			this.nanosPerOp = nanosPerOp;
+		}
+
+		public String getName(){
+			return name;
+		}
+
+		public double getMean(){
+			double sum = 0;
+			for(double nanos : nanosPerOp)
+				sum += nanos;
+			return sum/nanosPerOp.length;
+		}
+
+		//Sample standard deviation over the iterations
+		public double getDeviation(){
+
+			if(nanosPerOp.length < 2)
+				return 0;
+
+			double mean = getMean(), squares = 0;
+			for(double nanos : nanosPerOp)
+				squares += (nanos - mean)*(nanos - mean);
+
+			return Math.sqrt(squares/(nanosPerOp.length - 1));
+		}
+
+		public double getMin(){
+			double min = Double.POSITIVE_INFINITY;
+			for(double nanos : nanosPerOp)
+				min = Math.min(min, nanos);
+			return min;
+		}
+
+		@Override
+		public String toString(){
+			return String.format("%-48s %14.1f ns/op  +- %10.1f  (min %.1f)", name, getMean(), getDeviation(), getMin());
+		}
+	}
+
+}
@@ -0,0 +1,226 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import algo2.JoinAlg2;
+import table.HashIterator;
+import table.JoinIterator;
+import table.Join_Utility;
+import table.SortMergeJoinIterator;
+import table.Table;
+import table.TableIterator;
+
+/**Microbenchmarks of the hot paths of the join, each timed on its own over every KeyDistribution:
+ *
+ * 	sort                   Table.sort() of a base table on its key, a fresh unsorted copy of the rows being made before each sort
+ * 	binarySearch           Table.binarySearch() of random keys in a sorted table
+ * 	JoinIterator           synchronize() with random keys followed by reading all matching rows
+ * 	SortMergeJoinIterator  the same with increasing keys, the order the sort merge join sees them in
+ * 	HashIterator           the same with random keys, repeated keys being answered by the hash map
+ * 	computeAggregates      the join loop of algorithm 2 aggregating a two table join, planned and sorted beforehand
+ *
+ * Each measurement is reported per operation, where an operation is one row sorted, one search, one probe of an
+ * iterator or one input row of the join aggregated. A probe includes reading all rows matching it, so with ALL_EQUAL
+ * keys a probe reads the whole table.
+ *
+ * Usage: java bench.MicroBenchmarks [rows] [filter] [warmup iterations] [measured iterations]
+ * Only benchmarks whose name contains filter are run
+ */
+
+public class MicroBenchmarks {
+
+	public static final int  DEFAULT_ROWS = 100_000;
+	public static final int  PROBES       = 1024;  //Keys searched per invocation of the search and iterator benchmarks
+	public static final long SEED         = 42;
+
+	private final int    rows;
+	private final int    domain; //Number of distinct keys of the uniform and Zipfian distributions
+	private final Random random = new Random(SEED);
+
+
+	public MicroBenchmarks(int rows){
+		this.rows   = rows;
+		this.domain = Math.max(1, rows/16);
+	}
+
+	/**Two tables A(k, a) and B(k, b) joining on k, whose keys follow the distribution*/
+	private Table[] joinTables(KeyDistribution distribution){
+		return new Table[]{ keyTable(distribution, "k", "a", "A"), keyTable(distribution, "k", "b", "B") };
+	}
+
+	private Table keyTable(KeyDistribution distribution, String key, String value, String name){
+		return new Table(keyRows(distribution), new String[]{ key, value }, name);
+	}
+
+	//Rows (key, value) in random order
+	private double[][] keyRows(KeyDistribution distribution){
+
+		double[]   keys  = distribution.keys(rows, domain, random);
+		double[][] table = new double[rows][];
+
+		for(int r = 0; r < rows; ++r)
+			table[r] = new double[]{ keys[r], random.nextInt(100) };
+
+		return table;
+	}
+
+	//Keys to probe with, drawn from the keys of the table so most of them match
+	private double[] probes(Table table, int col, boolean sorted){
+
+		double[] probes = new double[PROBES];
+		for(int p = 0; p < PROBES; ++p)
+			probes[p] = table.valueAt(col, random.nextInt(table.getSize()));
+
+		if(sorted)
+			Arrays.sort(probes);
+
+		return probes;
+	}
+
+
+	public List<MicroBenchmark> benchmarks(){
+
+		List<MicroBenchmark> benchmarks = new ArrayList<MicroBenchmark>();
+
+		for(KeyDistribution distribution : KeyDistribution.values()){
+			benchmarks.add(sort(distribution));
+			benchmarks.add(binarySearch(distribution));
+			for(IteratorKind kind : IteratorKind.values())
+				benchmarks.add(iterator(kind, distribution));
+			benchmarks.add(computeAggregates(distribution));
+		}
+
+		return benchmarks;
+	}
+
+	private MicroBenchmark sort(KeyDistribution distribution){
+
+		final double[][] shuffled = keyRows(distribution);
+		final int[]      sortOn   = { 0 };
+
+		return new MicroBenchmark("sort/" + distribution, rows){
+
+			private Table table;
+
+			@Override
+			protected void setUp(){
+				table = new Table(Arrays.copyOf(shuffled, shuffled.length), new String[]{ "k", "a" }, "A");
+			}
+
+			@Override
+			protected double invoke(){
+				table.sort(sortOn);
+				return table.valueAt(0, 0);
+			}
+		};
+	}
+
+	private MicroBenchmark binarySearch(KeyDistribution distribution){
+
+		final Table table = keyTable(distribution, "k", "a", "A");
+		table.sort(new int[]{ 0 });
+
+		final double[]   probes = probes(table, 0, false);
+		final double[][] keys   = new double[PROBES][2];
+		for(int p = 0; p < PROBES; ++p)
+			keys[p][0] = probes[p];
+
+		return new MicroBenchmark("binarySearch/" + distribution, PROBES){
+
+			@Override
+			protected double invoke(){
+				double found = 0;
+				for(double[] key : keys)
+					found += table.binarySearch(key);
+				return found;
+			}
+		};
+	}
+
+
+	private enum IteratorKind { JOIN, SORT_MERGE, HASH }
+
+	/**Probes the second table of the join order like the join does: the key is set, the iterator synchronized and
+	 * then incremented over every matching row. A fresh iterator is made for each invocation since the sort merge
+	 * iterator only moves forward and the hash iterator caches the rows of the keys it has seen*/
+	private MicroBenchmark iterator(final IteratorKind kind, KeyDistribution distribution){
+
+		final Join_Utility data      = new Join_Utility(joinTables(distribution), null);
+		final double[]     keyValues = new double[data.getAttributes().size()];
+		final int          key       = data.getJoinKeys()[1][0];
+		final Table        probed    = data.getJoinOrder()[1];
+		final double[]     probes    = probes(probed, probed.keyToCol(key), kind == IteratorKind.SORT_MERGE);
+
+		String name = kind == IteratorKind.JOIN ? "JoinIterator" : kind == IteratorKind.SORT_MERGE ? "SortMergeJoinIterator" : "HashIterator";
+
+		return new MicroBenchmark(name + "/" + distribution, PROBES){
+
+			private TableIterator iterator;
+
+			@Override
+			protected void setUp(){
+				switch(kind){
+					case JOIN:       iterator = new JoinIterator(data, 1, keyValues);          break;
+					case SORT_MERGE: iterator = new SortMergeJoinIterator(data, 1, keyValues); break;
+					default:         iterator = new HashIterator(data, 1, keyValues);
+				}
+			}
+
+			@Override
+			protected double invoke(){
+
+				double matched = 0;
+				for(double probe : probes){
+					keyValues[key] = probe;
+					iterator.synchronize();
+
+					while(iterator.hasNext()){
+						iterator.increment();
+						matched += iterator.currentRow();
+					}
+				}
+
+				return matched;
+			}
+		};
+	}
+
+	private MicroBenchmark computeAggregates(KeyDistribution distribution){
+
+		final Table[]    tables     = joinTables(distribution);
+		final String[][] aggregates = { { "a", "b" }, { "a", "a" }, { "b", "b" } };
+
+		return new MicroBenchmark("computeAggregates/" + distribution, 2*rows){
+
+			private JoinAlg2.Prepared join;
+
+			@Override
+			protected void setUp(){ //Planning the join and making its iterators is not timed
+				join = JoinAlg2.prepare(tables, aggregates);
+			}
+
+			@Override
+			protected double invoke(){
+				return join.run()[0][0];
+			}
+		};
+	}
+
+	public static void main(String[] args){
+
+		int    rows       = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+		String filter     = args.length > 1 ? args[1] : "";
+		int    warmup     = args.length > 2 ? Integer.parseInt(args[2]) : MicroBenchmark.WARMUP_ITERATIONS;
+		int    iterations = args.length > 3 ? Integer.parseInt(args[3]) : MicroBenchmark.MEASURE_ITERATIONS;
+
+		System.out.println("rows = " + rows + ", " + warmup + " warmup and " + iterations + " measured iterations");
+
+		for(MicroBenchmark benchmark : new MicroBenchmarks(rows).benchmarks())
+			if(benchmark.getName().contains(filter))
+				System.out.println(benchmark.measure(warmup, iterations));
+	}
+
+}
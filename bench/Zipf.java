@@ -0,0 +1,43 @@
+package bench;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**Samples ranks 0,...,n-1 from a Zipf distribution: rank r is drawn with probability proportional to 1/(r+1)^exponent.
+ * Exponent 0 is the uniform distribution and the larger the exponent, the more the first ranks dominate.
+ * The cumulative distribution is computed once, so a sample is one binary search
+ */
+
+public class Zipf {
+
+	private final double[] cumulative; //cumulative[r] is the probability of drawing a rank <= r
+
+
+	public Zipf(int n, double exponent){
+
+		if(n < 1)
+			throw new IllegalArgumentException("A Zipf distribution needs at least one rank");
+		if(exponent < 0)
+			throw new IllegalArgumentException("The exponent of a Zipf distribution must not be negative");
+
+		cumulative = new double[n];
+
+		double total = 0;
+		for(int r = 0; r < n; ++r){
+			total += 1/Math.pow(r + 1, exponent);
+			cumulative[r] = total;
+		}
+
+		for(int r = 0; r < n; ++r)
+			cumulative[r] /= total;
+	}
+
+	public int sample(Random random){
+
+		int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+		rank = rank >= 0 ? rank : -rank - 1;
+
+		return Math.min(rank, cumulative.length - 1); //Guards against rounding in the last entry
+	}
+
+}
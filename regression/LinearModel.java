@@ -0,0 +1,83 @@
+package regression;
+
+import java.util.Arrays;
+
+/**A fitted linear model  label = intercept + coefficient_1*feature_1 + ... + coefficient_p*feature_p,
+ * see RegressionTrainer */
+
+public class LinearModel {
+
+	private final String   label;
+	private final String[] features;
+	private final double   intercept;
+	private final double[] coefficients;
+	private final double   meanSquaredError; //On the rows of the join the model was trained on
+	private final int      iterations;       //Of gradient descent, 0 if the normal equations were solved directly
+
+
+	LinearModel(String label, String[] features, double intercept, double[] coefficients, double meanSquaredError, int iterations){
+		this.label            = label;
+		this.features         = features.clone();
+		this.intercept        = intercept;
+		this.coefficients     = coefficients;
+		this.meanSquaredError = meanSquaredError;
+		this.iterations       = iterations;
+	}
+
+
+	//values[f] is the value of features[f]
+	public double predict(double[] values){
+
+		double prediction = intercept;
+		for(int f = 0; f < coefficients.length; ++f)
+			prediction += coefficients[f]*values[f];
+
+		return prediction;
+	}
+
+	public double getCoefficient(String feature){
+
+		for(int f = 0; f < features.length; ++f)
+			if(features[f].equals(feature))
+				return coefficients[f];
+
+		throw new IllegalArgumentException(feature + " is not a feature of the model");
+	}
+
+	public double[] getCoefficients(){
+		return coefficients.clone();
+	}
+
+	public double getIntercept(){
+		return intercept;
+	}
+
+	public String getLabel(){
+		return label;
+	}
+
+	public String[] getFeatures(){
+		return features.clone();
+	}
+
+	public double getMeanSquaredError(){
+		return meanSquaredError;
+	}
+
+	public int getIterations(){
+		return iterations;
+	}
+
+	public void print(){
+		System.out.println(label + " = " + intercept);
+		for(int f = 0; f < features.length; ++f)
+			System.out.println("    + " + coefficients[f] + "*" + features[f]);
+		System.out.println("MSE = " + meanSquaredError);
+	}
+
+	@Override
+	public String toString(){
+		return label + " ~ " + intercept + " + " + Arrays.toString(coefficients) + "*" + Arrays.toString(features);
+	}
+
+}
@@ -0,0 +1,295 @@
+package regression;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import algo2.JoinAlg2;
+import table.AggregateResult;
+import table.Table;
+
+/**Fits least squares and ridge regression models over the join of some tables without materializing the join.
+ *
+ * The model  y = w0 + w1*x1 + ... + wp*xp  minimizing  SUM((y - w0 - w1*x1 - ... - wp*xp)^2) + ridge*(w1^2 + ... + wp^2)
+ * solves the normal equations  (X'X + ridge*I) w = X'y,  and every entry of X'X and X'y is one of the aggregates COUNT(*),
+ * SUM(X) or SUM(XY) over the join. So the trainer runs algorithm 2 once when it is created, and fitting a model for any
+ * label and subset of the features afterwards only reads the aggregates: its cost depends on the number of features, not
+ * on the size of the join.
+ *
+ * fit() solves the normal equations with a Cholesky decomposition. If X'X is singular or too badly conditioned for that,
+ * for instance because a feature is a linear combination of others, it falls back to batch gradient descent
+ * on standardized features, which converges to a least squares solution regardless
+ */
+
+public class RegressionTrainer {
+
+	public static final int    MAX_ITERATIONS = 100000;
+	public static final double TOLERANCE      = 1e-10; //Gradient descent stops once no entry of the gradient is larger
+
+	private static final double PIVOT_EPSILON = 1e-12; //Relative size of a Cholesky pivot below which we consider X'X singular
+
+	private final AggregateResult aggregates;
+	private final Set<String>     attributes; //The attributes models may use, null for all attributes
+
+
+	/**Computes the aggregates over the join of the tables once. Models may use any attribute*/
+	public RegressionTrainer(Table[] tables){
+		this(JoinAlg2.runWithSums(tables, null), null);
+	}
+
+	/**Computes only the aggregates between the attributes given, which is cheaper if the tables have many more*/
+	public RegressionTrainer(Table[] tables, String[] attributes){
+		this(JoinAlg2.runWithSums(tables, allPairs(attributes)), new HashSet<String>(Arrays.asList(attributes)));
+	}
+
+	/**Trains on aggregates computed elsewhere. They must include SUM(XY) for every pair of attributes the models use*/
+	public RegressionTrainer(AggregateResult aggregates){
+		this(aggregates, null);
+	}
+
+	private RegressionTrainer(AggregateResult aggregates, Set<String> attributes){
+		this.aggregates = aggregates;
+		this.attributes = attributes;
+	}
+
+	private static String[][] allPairs(String[] attributes){
+
+		List<String[]> pairs = new ArrayList<String[]>();
+		for(int a1 = 0; a1 < attributes.length; ++a1)
+			for(int a2 = a1; a2 < attributes.length; ++a2)
+				pairs.add(new String[]{attributes[a1], attributes[a2]});
+
+		return pairs.toArray(new String[pairs.size()][]);
+	}
+
+
+	/**Fits label on the features with ridge regularization (0 for ordinary least squares), with a Cholesky decomposition
+	 * of the normal equations, or with gradient descent if they are singular*/
+	public LinearModel fit(String label, String[] features, double ridge){
+
+		check(label, features, ridge);
+
+		double[] solution = solveCholesky(normalMatrix(features, ridge), normalVector(label, features));
+
+		if(solution == null)
+			return fitGradientDescent(label, features, ridge);
+
+		return model(label, features, solution, 0);
+	}
+
+	public LinearModel fit(String label, String[] features){
+		return fit(label, features, 0);
+	}
+
+	/**Fits label on the features with batch gradient descent. The features are standardized with their means and
+	 * standard deviations over the join, which the aggregates give us, so that one step size suits all of them*/
+	public LinearModel fitGradientDescent(String label, String[] features, double ridge){
+
+		check(label, features, ridge);
+
+		final int    p = features.length;
+		final double n = aggregates.getCount();
+
+		double   labelMean = aggregates.getMean(label);
+		double[] mean      = new double[p];
+		double[] deviation = new double[p];
+
+		for(int f = 0; f < p; ++f){
+			mean[f]      = aggregates.getMean(features[f]);
+			deviation[f] = Math.sqrt(Math.max(0, covariance(features[f], mean[f], features[f], mean[f])));
+			if(deviation[f] == 0) //A constant feature, its coefficient stays 0
+				deviation[f] = 1;
+		}
+
+		//Minimize w'Hw - 2w'r: H is the correlation matrix of the standardized features plus the ridge term
+		//and r holds their covariances with the label
+		double[][] hessian = new double[p][p];
+		double[]   r       = new double[p];
+
+		for(int f1 = 0; f1 < p; ++f1){
+			r[f1] = covariance(features[f1], mean[f1], label, labelMean)/deviation[f1];
+
+			for(int f2 = 0; f2 < p; ++f2)
+				hessian[f1][f2] = covariance(features[f1], mean[f1], features[f2], mean[f2])/(deviation[f1]*deviation[f2]);
+
+			hessian[f1][f1] += ridge/(n*deviation[f1]*deviation[f1]);
+		}
+
+		//A step of 1/(largest absolute row sum) never overshoots, since that bounds the largest eigenvalue of H
+		double maxRowSum = 0;
+		for(double[] row : hessian){
+			double rowSum = 0;
+			for(double value : row)
+				rowSum += Math.abs(value);
+			maxRowSum = Math.max(maxRowSum, rowSum);
+		}
+		double step = maxRowSum > 0 ? 1/maxRowSum : 0;
+
+		double[] w        = new double[p];
+		double[] gradient = new double[p];
+		int iteration = 0;
+
+		while(iteration < MAX_ITERATIONS){
+
+			double largest = 0;
+			for(int f1 = 0; f1 < p; ++f1){
+				gradient[f1] = -r[f1];
+				for(int f2 = 0; f2 < p; ++f2)
+					gradient[f1] += hessian[f1][f2]*w[f2];
+
+				largest = Math.max(largest, Math.abs(gradient[f1]));
+			}
+
+			if(largest < TOLERANCE)
+				break;
+
+			for(int f = 0; f < p; ++f)
+				w[f] -= step*gradient[f];
+
+			++iteration;
+		}
+
+		//Undo the standardization
+		double[] solution = new double[p + 1];
+		solution[0] = labelMean;
+
+		for(int f = 0; f < p; ++f){
+			solution[f+1] = w[f]/deviation[f];
+			solution[0]  -= solution[f+1]*mean[f];
+		}
+
+		return model(label, features, solution, Math.max(iteration, 1));
+	}
+
+
+	/**X'X + ridge*I, where X has a column of ones for the intercept followed by the features. The intercept is not
+	 * regularized*/
+	private double[][] normalMatrix(String[] features, double ridge){
+
+		int p = features.length;
+		double[][] matrix = new double[p + 1][p + 1];
+
+		matrix[0][0] = aggregates.getCount();
+
+		for(int f1 = 0; f1 < p; ++f1){
+			matrix[0][f1+1] = matrix[f1+1][0] = aggregates.getSum(features[f1]);
+
+			for(int f2 = f1; f2 < p; ++f2)
+				matrix[f1+1][f2+1] = matrix[f2+1][f1+1] = aggregates.getProduct(features[f1], features[f2]);
+
+			matrix[f1+1][f1+1] += ridge;
+		}
+
+		return matrix;
+	}
+
+	//X'y
+	private double[] normalVector(String label, String[] features){
+
+		double[] vector = new double[features.length + 1];
+
+		vector[0] = aggregates.getSum(label);
+		for(int f = 0; f < features.length; ++f)
+			vector[f+1] = aggregates.getProduct(features[f], label);
+
+		return vector;
+	}
+
+	/**Solves matrix*x = vector for a symmetric positive definite matrix by decomposing it into L*L' and substituting
+	 * forwards and backwards. Returns null if the matrix is not (numerically) positive definite*/
+	private static double[] solveCholesky(double[][] matrix, double[] vector){
+
+		int size = vector.length;
+		double[][] lower = new double[size][size];
+
+		for(int i = 0; i < size; ++i){
+			for(int j = 0; j <= i; ++j){
+
+				double sum = matrix[i][j];
+				for(int k = 0; k < j; ++k)
+					sum -= lower[i][k]*lower[j][k];
+
+				if(i == j){
+					if(sum <= PIVOT_EPSILON*Math.abs(matrix[i][i]) || sum <= 0)
+						return null;
+					lower[i][i] = Math.sqrt(sum);
+				}
+				else
+					lower[i][j] = sum/lower[j][j];
+			}
+		}
+
+		double[] y = new double[size]; //L*y = vector
+		for(int i = 0; i < size; ++i){
+			double sum = vector[i];
+			for(int k = 0; k < i; ++k)
+				sum -= lower[i][k]*y[k];
+			y[i] = sum/lower[i][i];
+		}
+
+		double[] x = new double[size]; //L'*x = y
+		for(int i = size - 1; i >= 0; --i){
+			double sum = y[i];
+			for(int k = i + 1; k < size; ++k)
+				sum -= lower[k][i]*x[k];
+			x[i] = sum/lower[i][i];
+		}
+
+		return x;
+	}
+
+	//Covariance of x and y over the rows of the join: SUM(XY)/COUNT - mean(X)*mean(Y)
+	private double covariance(String x, double xMean, String y, double yMean){
+		return aggregates.getProduct(x, y)/aggregates.getCount() - xMean*yMean;
+	}
+
+	/**The model with solution[0] as intercept and solution[1..p] as coefficients. Its mean squared error on the join is
+	 * (y'y - 2w'X'y + w'X'Xw)/COUNT, which again only needs the aggregates*/
+	private LinearModel model(String label, String[] features, double[] solution, int iterations){
+
+		double[][] matrix = normalMatrix(features, 0);
+		double[]   vector = normalVector(label, features);
+
+		double squaredError = aggregates.getProduct(label, label);
+
+		for(int i = 0; i < solution.length; ++i){
+			squaredError -= 2*solution[i]*vector[i];
+			for(int j = 0; j < solution.length; ++j)
+				squaredError += solution[i]*matrix[i][j]*solution[j];
+		}
+
+		return new LinearModel(label, features, solution[0], Arrays.copyOfRange(solution, 1, solution.length),
+							   Math.max(0, squaredError)/aggregates.getCount(), iterations);
+	}
+
+	private void check(String label, String[] features, double ridge){
+
+		if(aggregates.getCount() == 0)
+			throw new IllegalStateException("The join is empty, there is nothing to train on");
+
+		if(ridge < 0)
+			throw new IllegalArgumentException("The ridge penalty must not be negative");
+
+		checkAttribute(label);
+		for(String feature : features){
+			checkAttribute(feature);
+			if(feature.equals(label))
+				throw new IllegalArgumentException("The label " + label + " cannot be a feature");
+		}
+	}
+
+	private void checkAttribute(String attribute){
+
+		aggregates.getKey(attribute); //Throws if no table has the attribute
+
+		if(attributes != null && !attributes.contains(attribute))
+			throw new IllegalArgumentException("The aggregates of " + attribute + " were not computed");
+	}
+
+	public AggregateResult getAggregates(){
+		return aggregates;
+	}
+
+}
@@ -0,0 +1,139 @@
+package service;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import algo2.JoinAlg2;
+import table.Table;
+
+/**In-process service that answers many aggregate queries at the same time against a catalog of tables that stay loaded
+ * in memory. Each query runs algorithm 2 on its own thread and the caller receives a future of the aggregate matrix.
+ *
+ * The tables in the catalog are never copied or locked. Every query plans over views of the tables (see Table.view()),
+ * so queries needing different sort orders of the same table do not interfere with each other.
+ *
+ * Joins are CPU bound, so running more of them than there are cores only makes each one slower. The service therefore
+ * lets at most maxConcurrentJoins queries join at the same time. By default it runs the queries on a pool of that many
+ * threads, so the others wait in the queue of the pool without holding a thread. On an executor passed in by the caller
+ * the queries instead wait for a slot on their own thread, which is cheap with virtual threads: on Java 21 pass
+ * Executors.newVirtualThreadPerTaskExecutor() as the executor.
+ *
+ * Cancelling a returned future stops its join shortly after, since the join loop checks for cancellation periodically
+ */
+
+public class AggregateQueryService implements AutoCloseable {
+
+	private final Map<String, Table> catalog = new ConcurrentHashMap<String, Table>(); //Resident tables, by name
+	private final ExecutorService    executor;
+	private final boolean            ownsExecutor; //Whether the service created the executor, and so shuts it down
+	private final Semaphore          joinSlots; //Limits how many joins run at the same time
+	private volatile boolean         closed;
+
+
+	public AggregateQueryService(int maxConcurrentJoins){
+		this(maxConcurrentJoins, Executors.newFixedThreadPool(checkPositive(maxConcurrentJoins)), true);
+	}
+
+	//The executor stays the caller's, close() does not shut it down
+	public AggregateQueryService(int maxConcurrentJoins, ExecutorService executor){
+		this(maxConcurrentJoins, executor, false);
+	}
+
+	private AggregateQueryService(int maxConcurrentJoins, ExecutorService executor, boolean ownsExecutor){
+		this.executor     = executor;
+		this.ownsExecutor = ownsExecutor;
+		this.joinSlots    = new Semaphore(checkPositive(maxConcurrentJoins), true);
+	}
+
+	private static int checkPositive(int maxConcurrentJoins){
+		if(maxConcurrentJoins < 1)
+			throw new IllegalArgumentException("maxConcurrentJoins must be positive: " + maxConcurrentJoins);
+		return maxConcurrentJoins;
+	}
+
+	//Adds the table to the catalog under its name, replacing any table with the same name
+	public void register(Table table){
+		catalog.put(table.name, table);
+	}
+
+	public Table unregister(String name){
+		return catalog.remove(name);
+	}
+
+	public Table getTable(String name){
+		return catalog.get(name);
+	}
+
+
+	/**Computes the aggregates SUM(X*Y) over the natural join of the named tables. aggregates lists the pairs of
+	 * attributes to compute, as for JoinAlg2.run(), or is null to compute all of them. Throws an IllegalStateException
+	 * once the service is closed*/
+	public CompletableFuture<double[][]> submit(String[] tableNames, String[][] aggregates){
+
+		Table[] tables = new Table[tableNames.length];
+
+		for(int t = 0; t < tables.length; ++t){
+			tables[t] = catalog.get(tableNames[t]);
+			if(tables[t] == null)
+				throw new IllegalArgumentException("Unknown table " + tableNames[t]);
+		}
+
+		return submit(tables, aggregates);
+	}
+
+	//Same as submit() on tables already taken from the catalog, see SharedScanBatcher
+	CompletableFuture<double[][]> submit(final Table[] tables, final String[][] aggregates){
+
+		if(closed)
+			throw new IllegalStateException("The service is closed");
+
+		final AtomicBoolean cancelled = new AtomicBoolean();
+		final CompletableFuture<double[][]> result = new CompletableFuture<double[][]>();
+
+		//CompletableFuture.cancel() does not interrupt the thread running the query, so we tell the join to stop ourselves
+		result.whenComplete((aggs, error) -> {
+			if(result.isCancelled())
+				cancelled.set(true);
+		});
+
+		executor.execute(() -> {
+
+			try{
+				joinSlots.acquire();
+			} catch(InterruptedException e){
+				result.completeExceptionally(e);
+				return;
+			}
+
+			try{
+				if(!cancelled.get()) //The query may have been cancelled while it waited for a slot
+					result.complete(JoinAlg2.runWithoutPrint(tables, aggregates, cancelled));
+			} catch(Throwable e){
+				result.completeExceptionally(e);
+			} finally{
+				joinSlots.release();
+			}
+		});
+
+		return result;
+	}
+
+	public CompletableFuture<double[][]> submit(String[] tableNames){
+		return submit(tableNames, null);
+	}
+
+	//Stops accepting queries, the queries already submitted still complete. Only shuts down the executor if the service
+	//created it
+	@Override
+	public void close(){
+		closed = true;
+		if(ownsExecutor)
+			executor.shutdown();
+	}
+
+}
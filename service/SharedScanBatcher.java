@@ -0,0 +1,290 @@
+package service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import table.Join_Utility;
+import table.Table;
+
+/**Batches aggregate queries so that queries over the same tables share one join.
+ *
+ * The first query over a list of tables opens a batch which stays open for windowMillis. Every query over the same
+ * list of tables arriving in that window joins the batch. When the window closes, the aggregates requested by all
+ * queries of the batch are merged into one query plan, the join is run once by the AggregateQueryService and each
+ * query receives the part of the aggregate matrix it asked for. Under bursty load the number of joins hence follows
+ * the number of distinct table lists rather than the number of queries.
+ *
+ * Queries over the same tables share a batch whatever order they list the tables in. The batch joins the tables in the
+ * order of their names, and each query receives the aggregates laid out for its own order of the tables, since the order
+ * decides the IDs of the attributes and so the layout of the aggregate matrix (see Join_Utility.numberAttributes())
+ */
+
+public class SharedScanBatcher implements AutoCloseable {
+
+	private final AggregateQueryService    service;
+	private final long                     windowMillis;
+	private final ScheduledExecutorService timer;
+	private final Map<List<String>, Batch> openBatches = new HashMap<List<String>, Batch>(); //Guarded by this
+	private       boolean                  closed; //Guarded by this
+
+
+	private static class Request{
+
+		final String[]                      tableNames; //In the order of the query, which decides the layout of its result
+		final String[][]                    aggregates; //null if the query wants all aggregates
+		final CompletableFuture<double[][]> result;
+
+		Request(String[] tableNames, String[][] aggregates, CompletableFuture<double[][]> result){
+			this.tableNames = tableNames;
+			this.aggregates = aggregates;
+			this.result     = result;
+		}
+	}
+
+	private static class Batch{
+
+		final String[]      tableNames;
+		final List<Request> requests = new ArrayList<Request>();
+
+		Batch(String[] tableNames){
+			this.tableNames = tableNames;
+		}
+	}
+
+
+	public SharedScanBatcher(AggregateQueryService service, long windowMillis){
+		this.service      = service;
+		this.windowMillis = windowMillis;
+		this.timer        = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "shared-scan-batcher");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+
+	/**Same as AggregateQueryService.submit(), but the join may be shared with other queries over the same tables.
+	 * Throws an IllegalArgumentException if a table is unknown or no table has an attribute of the aggregates, so that
+	 * the query does not fail the others of its batch, and an IllegalStateException once the batcher is closed*/
+	public CompletableFuture<double[][]> submit(String[] tableNames, String[][] aggregates){
+
+		checkAggregates(resolve(tableNames), aggregates);
+
+		CompletableFuture<double[][]> result = new CompletableFuture<double[][]>();
+
+		String[] sortedNames = tableNames.clone();
+		Arrays.sort(sortedNames);
+		final List<String> batchID = Arrays.asList(sortedNames);
+
+		synchronized(this){
+			if(closed)
+				throw new IllegalStateException("The batcher is closed");
+
+			Batch batch = openBatches.get(batchID);
+
+			if(batch == null){ //First query over these tables in this window
+				batch = new Batch(sortedNames);
+				timer.schedule(() -> runBatch(batchID), windowMillis, TimeUnit.MILLISECONDS);
+				openBatches.put(batchID, batch);
+			}
+
+			batch.requests.add(new Request(tableNames.clone(), aggregates, result));
+		}
+
+		return result;
+	}
+
+	public CompletableFuture<double[][]> submit(String[] tableNames){
+		return submit(tableNames, null);
+	}
+
+
+	private void runBatch(List<String> batchID){
+
+		final Batch batch;
+		synchronized(this){
+			batch = openBatches.remove(batchID);
+		}
+
+		final List<Request> requests = new ArrayList<Request>();
+		for(Request request : batch.requests)
+			if(!request.result.isDone()) //Skip queries cancelled while the batch was open
+				requests.add(request);
+
+		final Table[]                       tables; //Resolved once, the catalog may change while the scan runs
+		final List<String>                  attributes;
+		final CompletableFuture<double[][]> scan;
+
+		try{
+			tables = resolve(batch.tableNames);
+
+			//A table may have been replaced since the queries were submitted, a query it no longer suits fails alone
+			for(Iterator<Request> it = requests.iterator(); it.hasNext(); ){
+				Request request = it.next();
+				try{
+					checkAggregates(tables, request.aggregates);
+				} catch(IllegalArgumentException e){
+					request.result.completeExceptionally(e);
+					it.remove();
+				}
+			}
+
+			if(requests.isEmpty())
+				return;
+
+			attributes = Join_Utility.numberAttributes(tables);
+			scan       = service.submit(tables, mergeAggregates(requests));
+		} catch(RuntimeException e){
+			for(Request request : requests)
+				request.result.completeExceptionally(e);
+			return;
+		}
+
+		scan.whenComplete((aggregates, error) -> {
+
+			if(error != null){
+				for(Request request : requests)
+					request.result.completeExceptionally(error);
+				return;
+			}
+
+			if(requests.size() == 1 && Arrays.equals(requests.get(0).tableNames, batch.tableNames)){ //Nothing was shared
+				requests.get(0).result.complete(aggregates);
+				return;
+			}
+
+			for(Request request : requests){
+				try{
+					request.result.complete(extract(aggregates, attributes, ownTables(tables, batch.tableNames, request), request));
+				} catch(RuntimeException e){
+					request.result.completeExceptionally(e);
+				}
+			}
+		});
+	}
+
+
+	/**Returns the union of the aggregates requested by the queries, or null if one of them wants all aggregates*/
+	private static String[][] mergeAggregates(List<Request> requests){
+
+		Set<List<String>> merged = new LinkedHashSet<List<String>>();
+
+		for(Request request : requests){
+
+			if(request.aggregates == null)
+				return null;
+
+			for(String[] agg : request.aggregates){ //SUM(AB) and SUM(BA) are the same aggregate
+				if(agg[0].compareTo(agg[1]) <= 0)
+					merged.add(Arrays.asList(agg[0], agg[1]));
+				else
+					merged.add(Arrays.asList(agg[1], agg[0]));
+			}
+		}
+
+		String[][] toReturn = new String[merged.size()][];
+
+		int a = 0;
+		for(List<String> agg : merged)
+			toReturn[a++] = agg.toArray(new String[2]);
+
+		return toReturn;
+	}
+
+	/**Copies the aggregates a query requested out of the shared result, whose attributes are numbered as in attributes.
+	 * ownTables are the tables in the order of the query. The copy is laid out exactly as if the query had been run
+	 * alone, with the aggregates it did not request left at 0*/
+	private static double[][] extract(double[][] shared, List<String> attributes, Table[] ownTables, Request request){
+
+		List<String>         ownAttributes  = Join_Utility.numberAttributes(ownTables);
+		Map<String, Integer> attributeToKey = new HashMap<String, Integer>();
+		int[]                sharedKey      = new int[ownAttributes.size()]; //Key of the query's attributes in shared
+
+		for(int key = 0; key < ownAttributes.size(); ++key){
+			attributeToKey.put(ownAttributes.get(key), key);
+			sharedKey[key] = attributes.indexOf(ownAttributes.get(key));
+		}
+
+		int totalKeys = shared.length;
+		double[][] toReturn = new double[totalKeys][totalKeys];
+
+		if(request.aggregates == null){
+			for(int k1 = 0; k1 < totalKeys; ++k1)
+				for(int k2 = k1; k2 < totalKeys; ++k2)
+					toReturn[k1][k2] = shared[Math.min(sharedKey[k1], sharedKey[k2])][Math.max(sharedKey[k1], sharedKey[k2])];
+
+			return toReturn;
+		}
+
+		for(String[] agg : request.aggregates){
+			int k1 = Math.min(attributeToKey.get(agg[0]), attributeToKey.get(agg[1]));
+			int k2 = Math.max(attributeToKey.get(agg[0]), attributeToKey.get(agg[1]));
+			toReturn[k1][k2] = shared[Math.min(sharedKey[k1], sharedKey[k2])][Math.max(sharedKey[k1], sharedKey[k2])];
+		}
+
+		return toReturn;
+	}
+
+	//The tables of the batch, whose names are sorted, in the order the request lists them
+	private static Table[] ownTables(Table[] tables, String[] sortedNames, Request request){
+
+		Table[] ownTables = new Table[tables.length];
+		for(int t = 0; t < ownTables.length; ++t)
+			ownTables[t] = tables[Arrays.binarySearch(sortedNames, request.tableNames[t])];
+
+		return ownTables;
+	}
+
+	private Table[] resolve(String[] tableNames){
+
+		Table[] tables = new Table[tableNames.length];
+
+		for(int t = 0; t < tables.length; ++t){
+			tables[t] = service.getTable(tableNames[t]);
+			if(tables[t] == null)
+				throw new IllegalArgumentException("Unknown table " + tableNames[t]);
+		}
+
+		return tables;
+	}
+
+	//Fails unless each aggregate is a pair of attributes of the tables
+	private static void checkAggregates(Table[] tables, String[][] aggregates){
+
+		if(aggregates == null)
+			return;
+
+		Set<String> attributes = new HashSet<String>(Join_Utility.numberAttributes(tables));
+
+		for(String[] agg : aggregates){
+			if(agg.length != 2)
+				throw new IllegalArgumentException("An aggregate is a pair of attributes, not " + Arrays.toString(agg));
+
+			for(String attribute : agg)
+				if(!attributes.contains(attribute))
+					throw new IllegalArgumentException("No table has the attribute " + attribute);
+		}
+	}
+
+
+	//Stops accepting queries, submit() throws from now on. The batches still open run when their window closes
+	@Override
+	public void close(){
+		synchronized(this){
+			closed = true;
+		}
+		timer.shutdown();
+	}
+
+}
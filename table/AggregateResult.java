@@ -0,0 +1,114 @@
+package table;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**Everything one pass over a join computes: the number of rows of the join COUNT(*), the sums SUM(X) of each attribute
+ * and the sums of products SUM(XY). These are all that is needed to center the data or build its covariance matrix, so
+ * downstream code does not have to run a second query for the counts and means.
+ *
+ * Attributes are numbered as in Join_Utility.numberAttributes(). The matrix of products is laid out like the result of the
+ * algorithms' runWithoutPrint(): only products[k1][k2] with k1 <= k2 are filled in, and only for the requested aggregates
+ * if the query asked for some
+ */
+
+public class AggregateResult {
+
+	private final List<String>         attributes;
+	private final Map<String, Integer> attributeToKey = new HashMap<String, Integer>();
+	private final long                 count;
+	private final double[]             sums;
+	private final double[][]           products;
+
+
+	public AggregateResult(List<String> attributes, long count, double[] sums, double[][] products){
+		this.attributes = attributes;
+		this.count      = count;
+		this.sums       = sums;
+		this.products   = products;
+
+		for(int key = 0; key < attributes.size(); ++key)
+			attributeToKey.put(attributes.get(key), key);
+	}
+
+
+	public long getCount(){
+		return count;
+	}
+
+	//sums[key] is SUM(X) for the attribute X with ID key
+	public double[] getSums(){
+		return sums;
+	}
+
+	public double[][] getProducts(){
+		return products;
+	}
+
+	public List<String> getAttributes(){
+		return attributes;
+	}
+
+	public double getSum(String attribute){
+		return sums[getKey(attribute)];
+	}
+
+	//SUM(XY), in either order of X and Y
+	public double getProduct(String x, String y){
+		int k1 = getKey(x), k2 = getKey(y);
+		return products[Math.min(k1, k2)][Math.max(k1, k2)];
+	}
+
+	//The mean of the attribute over the rows of the join, NaN if the join is empty
+	public double getMean(String attribute){
+		return count > 0 ? getSum(attribute)/count : Double.NaN;
+	}
+
+	public int getKey(String attribute){
+
+		Integer key = attributeToKey.get(attribute);
+		if(key == null)
+			throw new IllegalArgumentException("No table has the attribute " + attribute);
+
+		return key;
+	}
+
+	/**Adds up the aggregates of all results except results[except], which must be over the same attributes. For the folds
+	 * of JoinAlg2.runFolds() this gives the training aggregates of fold except*/
+	public static AggregateResult sumExcept(AggregateResult[] results, int except){
+
+		int totalKeys = results[0].attributes.size();
+
+		long       count    = 0;
+		double[]   sums     = new double[totalKeys];
+		double[][] products = new double[totalKeys][totalKeys];
+
+		for(int r = 0; r < results.length; ++r){
+			if(r == except)
+				continue;
+
+			count += results[r].count;
+			for(int k1 = 0; k1 < totalKeys; ++k1){
+				sums[k1] += results[r].sums[k1];
+				for(int k2 = k1; k2 < totalKeys; ++k2)
+					products[k1][k2] += results[r].products[k1][k2];
+			}
+		}
+
+		return new AggregateResult(results[0].attributes, count, sums, products);
+	}
+
+	public void print(){
+
+		System.out.println("COUNT(*) = " + count);
+
+		for(int k = 0; k < attributes.size(); ++k)
+			System.out.println("SUM(" + attributes.get(k) + ") = " + sums[k]);
+
+		for(int k1 = 0; k1 < attributes.size(); ++k1)
+			for(int k2 = k1; k2 < attributes.size(); ++k2)
+				System.out.println("SUM(" + attributes.get(k1) + "*" + attributes.get(k2) + ") = " + products[k1][k2]);
+	}
+
+}
@@ -0,0 +1,293 @@
+package table;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**A table that rows can be appended to while it is being queried, organized like a log-structured merge tree.
+ *
+ * Appended rows go into a small unsorted buffer. Once the buffer holds BUFFER_SIZE rows it becomes a run: an immutable
+ * piece of the table which lays its rows out once for each sort order the queries asked for and keeps the layouts.
+ * A background thread merges the runs so that there are only a logarithmic number of them: whenever a run is at least
+ * as large as the run before it, the two are merged, keeping the sorted layouts by merging them too. Each row is hence
+ * merged O(log n) times in total, and no rows are ever sorted twice.
+ *
+ * Queries do not read the table directly but a snapshot of it (see snapshot()), an ordinary Table holding the rows
+ * appended so far. The iterators address the rows of a table by their position in one sorted layout, so a snapshot builds
+ * the layouts they ask for by merging the sorted layouts of the runs, which costs O(n log(runs)) instead of sorting all
+ * rows again. Appending only takes a lock for as long as it takes to copy the row, so ingest does not wait on queries
+ * and queries do not wait on the sorting and merging of new rows
+ */
+
+public class AppendableTable implements AutoCloseable {
+
+	public static final int BUFFER_SIZE = 1 << 12;
+
+	private final String[]        schema;
+	public  final String          name;
+	private final List<Run>       runs = new ArrayList<Run>(); //Oldest first, guarded by this
+	private       double[][]      buffer = new double[BUFFER_SIZE][]; //Rows not in a run yet, guarded by this
+	private       int             bufferSize;
+	private       int             size;
+	private       Snapshot        lastSnapshot; //Reused until rows are appended, guarded by this
+	private final Set<List<Integer>> requestedLayouts = ConcurrentHashMap.newKeySet(); //Sort orders queries asked for
+	private final ExecutorService compactor;
+
+
+	/**An immutable piece of the table along with its sorted layouts*/
+	private static class Run{
+
+		final double[][] rows;
+		final ConcurrentHashMap<List<Integer>, double[][]> layouts = new ConcurrentHashMap<List<Integer>, double[][]>();
+
+		Run(double[][] rows){
+			this.rows = rows;
+		}
+
+		double[][] getLayout(List<Integer> sortOn){
+
+			double[][] layout = layouts.get(sortOn);
+
+			if(layout == null){
+				layout = rows.clone();
+				Arrays.sort(layout, comparator(sortOn));
+
+				double[][] cached = layouts.putIfAbsent(sortOn, layout);
+				if(cached != null)
+					layout = cached;
+			}
+
+			return layout;
+		}
+
+		//Merges two runs, merging the layouts both of them have
+		static Run merge(Run first, Run second){
+
+			double[][] rows = Arrays.copyOf(first.rows, first.rows.length + second.rows.length);
+			System.arraycopy(second.rows, 0, rows, first.rows.length, second.rows.length);
+
+			Run merged = new Run(rows);
+
+			for(List<Integer> sortOn : first.layouts.keySet()){
+				double[][] otherLayout = second.layouts.get(sortOn);
+				if(otherLayout != null)
+					merged.layouts.put(sortOn, Table.merge(first.layouts.get(sortOn), otherLayout, comparator(sortOn)));
+			}
+
+			return merged;
+		}
+	}
+
+	/**The rows of the table at the time it was taken. Sorted layouts are merged from the layouts of the runs*/
+	private class Snapshot extends Table{
+
+		private final List<Run> runs;
+
+		Snapshot(double[][] rows, String[] schema, String name, List<Run> runs){
+			super(rows, schema, name);
+			this.runs = runs;
+		}
+
+		@Override
+		protected double[][] computeSortedLayout(int[] sortOn){
+
+			List<Integer> id = Table.toList(sortOn);
+			requestedLayouts.add(id); //Future runs lay their rows out this way in the background
+
+			List<double[][]> layouts = new ArrayList<double[][]>(runs.size());
+			for(Run run : runs)
+				layouts.add(run.getLayout(id));
+
+			return mergeAll(layouts, new RowComparator(sortOn));
+		}
+	}
+
+
+	public AppendableTable(String[] schema, String name){
+		this.schema    = schema;
+		this.name      = name;
+		this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "compactor-" + name);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+
+	public void append(double[] row){
+
+		if(row.length != schema.length)
+			throw new IllegalArgumentException("Appended row has " + row.length + " columns, " + name + " has " + schema.length);
+
+		double[] copy = row.clone();
+
+		synchronized(this){
+			buffer[bufferSize++] = copy;
+			++size;
+
+			if(bufferSize == BUFFER_SIZE)
+				flushBuffer();
+		}
+	}
+
+	public void append(double[][] rows){
+		for(double[] row : rows)
+			append(row);
+	}
+
+	/**Turns the rows in the buffer into a run even if the buffer is not full*/
+	public synchronized void flush(){
+		if(bufferSize > 0)
+			flushBuffer();
+	}
+
+	//Called holding the lock
+	private void flushBuffer(){
+
+		runs.add(new Run(Arrays.copyOf(buffer, bufferSize)));
+
+		buffer     = new double[BUFFER_SIZE][];
+		bufferSize = 0;
+
+		try{
+			compactor.execute(this::compact);
+		} catch(RejectedExecutionException e){
+			//Closed, the runs are no longer merged
+		}
+	}
+
+
+	/**Returns a table holding the rows appended so far. Rows appended later do not show up in it, so a query can read it
+	 * as long as it likes. The statistics of the previous snapshot are reused while the table has not grown by a tenth*/
+	public Table snapshot(){
+
+		final List<Run> currentRuns;
+		final double[][] buffered;
+		final Snapshot previous;
+
+		synchronized(this){
+			if(lastSnapshot != null && lastSnapshot.getSize() == size)
+				return lastSnapshot;
+
+			currentRuns = new ArrayList<Run>(runs);
+			buffered    = Arrays.copyOf(buffer, bufferSize);
+			previous    = lastSnapshot;
+		}
+
+		if(buffered.length > 0)
+			currentRuns.add(new Run(buffered)); //Small, so sorting it for each layout costs little
+
+		double[][] rows = new double[size(currentRuns)][];
+		int numRows = 0;
+		for(Run run : currentRuns){
+			System.arraycopy(run.rows, 0, rows, numRows, run.rows.length);
+			numRows += run.rows.length;
+		}
+
+		Snapshot snapshot = new Snapshot(rows, schema, name, currentRuns);
+
+		if(previous != null && 10*(rows.length - previous.getSize()) < previous.getSize())
+			snapshot.setStatistics(previous.getStatistics());
+
+		synchronized(this){
+			if(lastSnapshot == null || lastSnapshot.getSize() < rows.length)
+				lastSnapshot = snapshot;
+		}
+
+		return snapshot;
+	}
+
+
+	/**Lays out new runs in the sort orders queries have asked for, then merges runs while a run is at least as large
+	 * as the run before it. Runs only on the compactor thread, so no two merges ever race*/
+	private void compact(){
+
+		for(Run run : currentRuns())
+			for(List<Integer> sortOn : requestedLayouts)
+				run.getLayout(sortOn);
+
+		while(true){
+
+			Run first, second;
+
+			synchronized(this){
+				int n = runs.size();
+				if(n < 2 || runs.get(n - 2).rows.length > runs.get(n - 1).rows.length)
+					return;
+
+				first  = runs.get(n - 2);
+				second = runs.get(n - 1);
+			}
+
+			Run merged = Run.merge(first, second);
+
+			synchronized(this){ //Runs may have been added at the end meanwhile, but first and second are still adjacent
+				int at = runs.indexOf(first);
+				runs.set(at, merged);
+				runs.remove(at + 1);
+			}
+		}
+	}
+
+	private synchronized List<Run> currentRuns(){
+		return new ArrayList<Run>(runs);
+	}
+
+
+	//Merges sorted arrays of rows pairwise, so that each row takes part in O(log(number of arrays)) merges
+	private static double[][] mergeAll(List<double[][]> sorted, RowComparator comparator){
+
+		if(sorted.isEmpty())
+			return new double[0][];
+
+		while(sorted.size() > 1){
+			List<double[][]> merged = new ArrayList<double[][]>((sorted.size() + 1)/2);
+
+			for(int s = 0; s + 1 < sorted.size(); s += 2)
+				merged.add(Table.merge(sorted.get(s), sorted.get(s + 1), comparator));
+
+			if(sorted.size() % 2 == 1)
+				merged.add(sorted.get(sorted.size() - 1));
+
+			sorted = merged;
+		}
+
+		return sorted.get(0); //Layouts are never modified, so a single run's layout can be shared
+	}
+
+	private static RowComparator comparator(List<Integer> sortOn){
+		return new RowComparator(sortOn.stream().mapToInt(Integer::intValue).toArray());
+	}
+
+	private static int size(List<Run> runs){
+		int size = 0;
+		for(Run run : runs)
+			size += run.rows.length;
+		return size;
+	}
+
+
+	public synchronized int getSize(){
+		return size;
+	}
+
+	public synchronized int numRuns(){
+		return runs.size();
+	}
+
+	public String[] getSchema(){
+		return schema;
+	}
+
+	//Stops merging runs. The table can still be appended to and queried, the runs just stay as they are
+	@Override
+	public void close(){
+		compactor.shutdown();
+	}
+
+}
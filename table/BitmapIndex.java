@@ -0,0 +1,80 @@
+package table;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**Bitmap index of a column with few distinct values, like the flags of a house or the supermarkets near a shop. For
+ * each value the index keeps the set of rows holding it as a RoaringBitmap. A condition on the column is the OR of the
+ * bitmaps of the values satisfying it, several conditions are the AND of their bitmaps, and the number of rows satisfying
+ * them is the cardinality of the result, so none of these read the rows of the table.
+ *
+ * Rows are numbered by their position in the base table. Indexes are built on demand by Table.getBitmapIndex()
+ */
+
+public class BitmapIndex {
+
+	public static final int MAX_VALUES = 256; //Columns with more distinct values are not worth indexing with bitmaps
+
+	private final int                         col;
+	private final int                         numRows;
+	private final TreeMap<Double, RoaringBitmap> bitmaps = new TreeMap<Double, RoaringBitmap>(); //Rows of each value
+
+
+	BitmapIndex(double[][] rows, int col, String attribute){
+
+		this.col     = col;
+		this.numRows = rows.length;
+
+		for(int r = 0; r < rows.length; ++r){
+
+			double value = Values.normalize(rows[r][col]);
+			RoaringBitmap bitmap = bitmaps.get(value);
+
+			if(bitmap == null){
+				if(bitmaps.size() == MAX_VALUES)
+					throw new IllegalArgumentException(attribute + " has more than " + MAX_VALUES + " distinct values, a bitmap index does not suit it");
+
+				bitmap = new RoaringBitmap();
+				bitmaps.put(value, bitmap);
+			}
+
+			bitmap.add(r);
+		}
+	}
+
+	public int getCol(){
+		return col;
+	}
+
+	public int getNumRows(){
+		return numRows;
+	}
+
+	//The rows holding the value
+	public RoaringBitmap rows(double value){
+		RoaringBitmap bitmap = bitmaps.get(Values.normalize(value));
+		return bitmap != null ? bitmap : new RoaringBitmap();
+	}
+
+	//The rows satisfying the condition, which must be on the indexed column
+	public RoaringBitmap matching(Condition condition){
+
+		RoaringBitmap matching = new RoaringBitmap();
+		for(Map.Entry<Double, RoaringBitmap> value : bitmaps.entrySet())
+			if(condition.test(value.getKey()))
+				matching = matching.or(value.getValue());
+
+		return matching;
+	}
+
+	//Number of rows holding each value, in increasing order of the values. Answers GROUP BY COUNT(*) on the column
+	public Map<Double, Integer> counts(){
+
+		Map<Double, Integer> counts = new TreeMap<Double, Integer>();
+		for(Map.Entry<Double, RoaringBitmap> value : bitmaps.entrySet())
+			counts.put(value.getKey(), value.getValue().cardinality());
+
+		return counts;
+	}
+
+}
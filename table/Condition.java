@@ -0,0 +1,102 @@
+package table;
+
+/**A condition on the values of one attribute, like price < 500000 or garden = 1. A query keeps the rows of the join
+ * satisfying all its conditions (their AND).
+ *
+ * Since the join is natural, a row of the join satisfies a condition on attribute X if and only if the rows of every
+ * table holding X that produce it do. So the conditions are pushed down to the tables: each table drops the rows failing
+ * a condition on one of its attributes before the join starts (see Table.select()). A condition is evaluated once per row
+ * of each table holding its attribute, never once per row of the join, and the iterators never see the dropped rows
+ */
+
+public class Condition {
+
+	private static final int LESS = 0, LESS_OR_EQUAL = 1, EQUAL = 2, GREATER_OR_EQUAL = 3, GREATER = 4, BETWEEN = 5;
+
+	private final String attribute;
+	private final int    operator;
+	private final double value;
+	private final double upper;  //Only for BETWEEN
+
+
+	private Condition(String attribute, int operator, double value, double upper){
+		this.attribute = attribute;
+		this.operator  = operator;
+		this.value     = value;
+		this.upper     = upper;
+	}
+
+	public static Condition lessThan(String attribute, double value){
+		return new Condition(attribute, LESS, value, 0);
+	}
+
+	public static Condition lessOrEqual(String attribute, double value){
+		return new Condition(attribute, LESS_OR_EQUAL, value, 0);
+	}
+
+	public static Condition equalTo(String attribute, double value){
+		return new Condition(attribute, EQUAL, value, 0);
+	}
+
+	public static Condition greaterOrEqual(String attribute, double value){
+		return new Condition(attribute, GREATER_OR_EQUAL, value, 0);
+	}
+
+	public static Condition greaterThan(String attribute, double value){
+		return new Condition(attribute, GREATER, value, 0);
+	}
+
+	//lower <= attribute <= upper
+	public static Condition between(String attribute, double lower, double upper){
+		return new Condition(attribute, BETWEEN, lower, upper);
+	}
+
+
+	public boolean test(double x){
+
+		switch(operator){
+			case LESS:             return x <  value;
+			case LESS_OR_EQUAL:    return x <= value;
+			case EQUAL:            return x == value;
+			case GREATER_OR_EQUAL: return x >= value;
+			case GREATER:          return x >  value;
+			default:               return x >= value && x <= upper;
+		}
+	}
+
+	//Could a value between min and max satisfy the condition? Lets a scan skip blocks of rows, see ZoneMap
+	public boolean mayMatch(double min, double max){
+
+		switch(operator){
+			case LESS:             return min <  value;
+			case LESS_OR_EQUAL:    return min <= value;
+			case EQUAL:            return min <= value && value <= max;
+			case GREATER_OR_EQUAL: return max >= value;
+			case GREATER:          return max >  value;
+			default:               return max >= value && min <= upper;
+		}
+	}
+
+	//Does every value between min and max satisfy the condition?
+	public boolean matchesAll(double min, double max){
+		return test(min) && test(max);
+	}
+
+	public String getAttribute(){
+		return attribute;
+	}
+
+	@Override
+	public String toString(){
+
+		switch(operator){
+			case LESS:             return attribute + " < "  + value;
+			case LESS_OR_EQUAL:    return attribute + " <= " + value;
+			case EQUAL:            return attribute + " = "  + value;
+			case GREATER_OR_EQUAL: return attribute + " >= " + value;
+			case GREATER:          return attribute + " > "  + value;
+			default:               return value + " <= " + attribute + " <= " + upper;
+		}
+	}
+
+}
@@ -0,0 +1,439 @@
+package table;
+
+import java.util.Arrays;
+
+/**Chooses the join order and the iterator used for each table of the join order by estimating the cost of the candidate
+ * plans from the statistics of the tables (see TableStatistics).
+ *
+ * Estimating the size of a join: joining a result R with a table T on the keys k1,...,km produces
+ *
+ * 		|R| * |T| / (max(V(R,k1), V(T,k1)) * ... * max(V(R,km), V(T,km)))
+ *
+ * rows, where V(R,k) is the number of distinct values of key k. We assume the values of a key with fewer distinct values
+ * all appear amongst those of the other side. The number of distinct values of a key in the result is at most the smaller
+ * of both sides and never more than the number of rows of the result.
+ *
+ * Cost of a plan: each row the first i tables of the join order produce is one synchronization of iterator i+1, and each row
+ * iterator i+1 produces is one increment. On top of that, iterators pay for locating the matching rows:
+ *
+ * 	SortMergeJoinIterator: walks its table once from top to bottom, so |T|. It can only be used while the incoming rows are
+ * 						   sorted on its join keys, which holds for the second table and the tables right after it joining
+ * 						   on the same keys (the first table is sorted on the join keys of the second).
+ * 	JoinIterator: 		   one binary search, log|T|, per synchronization whose keys differ from the last one. The join
+ * 						   produces its rows in the order of the first table's rows, so if the join keys are the first
+ * 						   columns the first table is sorted on, equal keys arrive one after another and it searches once
+ * 						   for each of their values. The first table is sorted on the join keys of the tables after it, in
+ * 						   the join order (see Join_Utility.generateSortCols()).
+ * 	HashIterator: 		   a hash table lookup per synchronization, and a binary search only for the first synchronization
+ * 						   with each value of its join keys. It wins when the same keys come back often out of order.
+ *
+ * With few tables we find the cheapest left deep plan with dynamic programming over the subsets of the tables. Because the
+ * number of subsets grows exponentially, with more tables we instead grow the join order greedily from each possible
+ * first table, each time appending the table that adds the least cost, and keep the cheapest of these orders.
+ * Plans are built from the statistics alone and store only the keys of their tables, so planning takes a few
+ * milliseconds even for dozens of tables with a thousand attributes.
+ * Tables that share no key with the tables before them are only appended when no other table can be.
+ * A query may require the first table to hold a given key, see JoinAlg2's group by.
+ */
+
+public class CostBasedPlanner {
+
+	public static final int START      = 0; //Iterator types, see Join_Utility.makeIterator()
+	public static final int SORT_MERGE = 1;
+	public static final int JOIN       = 2;
+	public static final int HASH       = 3;
+
+	private static final int    MAX_TABLES_FOR_DP = 12;
+	private static final double HASH_LOOKUP_COST  = 4; //Cost of a hash table lookup relative to a step of a binary search
+
+	private final Table[]  tables;
+	private final int      numKeys;
+	private final double[] rowCounts;
+	private final double[][] distinctCounts; //distinctCounts[t][key] is the number of distinct values of key in table t, 0 if absent
+	private final int[][]  sortedKeys;       //The keys of each table in increasing order
+	private final int[]    slotOf;           //Place of each key in the loaded plan, -1 if absent, see Plan
+	private final int      firstKey;         //Plans must scan a table holding this key first, -1 for any table
+
+	private final Table[]  joinOrder;
+	private final int[]    iteratorTypes;
+	private final double   cost;
+
+
+	/**Plans the join of the tables. The keys of the tables must have been assigned already (see Table.setKeys())*/
+	public CostBasedPlanner(Table[] tables, int numKeys){
+		this(tables, numKeys, -1);
+	}
+
+	/**Plans the join of the tables such that the first table of the join order holds firstKey (any table if -1)*/
+	public CostBasedPlanner(Table[] tables, int numKeys, int firstKey){
+
+		this.tables   = tables;
+		this.numKeys  = numKeys;
+		this.firstKey = firstKey;
+		this.rowCounts      = new double[tables.length];
+		this.distinctCounts = new double[tables.length][numKeys];
+		this.sortedKeys     = new int[tables.length][];
+		this.slotOf         = new int[numKeys];
+		Arrays.fill(slotOf, -1);
+
+		for(int t = 0; t < tables.length; ++t){
+			TableStatistics stats = tables[t].getStatistics();
+			rowCounts[t] = stats.getRowCount();
+
+			for(int col = 0; col < tables[t].numCols(); ++col)
+				distinctCounts[t][tables[t].keyAtCol(col)] = Math.max(1, stats.getDistinctCount(col));
+
+			sortedKeys[t] = tables[t].getKeys().clone();
+			Arrays.sort(sortedKeys[t]);
+		}
+
+		boolean canStart = false;
+		for(int t = 0; t < tables.length; ++t)
+			canStart |= canScanFirst(t);
+
+		if(!canStart)
+			throw new IllegalArgumentException("No table holds the key " + firstKey + " the join must start with");
+
+		Plan best = tables.length <= MAX_TABLES_FOR_DP ? planWithDP() : planGreedily();
+
+		this.joinOrder     = new Table[tables.length];
+		this.iteratorTypes = best.types;
+		this.cost          = best.cost;
+
+		for(int t = 0; t < tables.length; ++t)
+			joinOrder[t] = tables[best.order[t]];
+	}
+
+
+	/**A left deep join of some of the tables, along with estimates of its cost and result.
+	 * 
+	 * The plan only stores the keys in its result. To look them up by key, the plan is loaded into slotOf, which maps each
+	 * key to its place in the plan. One plan is loaded at a time. The greedy search extends a single plan in place while
+	 * dynamic programming copies a plan before extending it*/
+	private class Plan{
+
+		final int[]     order;      //Indexes of the tables in the join order
+		final int[]     types;      //Iterator type of each table in the join order
+		final boolean[] used;       //Tables in the plan
+		int[]           present;    //Keys in the result
+		double[]        distinct;   //Estimated number of distinct values of each key in present
+		int             size;       //Number of tables in the plan
+		int             numPresent;
+		double          cost;
+		double          rows;       //Estimated number of rows the join produces
+		int[]           mergeKeys;  //The keys the result is sorted on if a sort merge iterator may be appended, otherwise null
+		int[]           firstSort;  //The keys the first table is sorted on so far, in order
+		int             numFirstSort;
+
+		//The plan scanning table t first
+		Plan(int t){
+			this.order    = new int[tables.length];
+			this.types    = new int[tables.length];
+			this.used     = new boolean[tables.length];
+			this.present  = sortedKeys[t].clone();
+			this.distinct = new double[present.length];
+
+			for(int k = 0; k < present.length; ++k)
+				distinct[k] = distinctCounts[t][present[k]];
+
+			this.firstSort = new int[present.length];
+
+			order[0] = t; types[0] = START; used[t] = true;
+			size = 1; numPresent = present.length;
+			cost = rows = rowCounts[t];
+		}
+
+		Plan(Plan other){
+			this.order      = other.order.clone();
+			this.types      = other.types.clone();
+			this.used       = other.used.clone();
+			this.present    = Arrays.copyOf(other.present, other.numPresent);
+			this.distinct   = Arrays.copyOf(other.distinct, other.numPresent);
+			this.size       = other.size;
+			this.numPresent = other.numPresent;
+			this.cost       = other.cost;
+			this.rows       = other.rows;
+			this.mergeKeys  = other.mergeKeys;
+			this.firstSort  = other.firstSort.clone();
+			this.numFirstSort = other.numFirstSort;
+		}
+
+		void load(){
+			for(int k = 0; k < numPresent; ++k)
+				slotOf[present[k]] = k;
+		}
+
+		void unload(){
+			for(int k = 0; k < numPresent; ++k)
+				slotOf[present[k]] = -1;
+		}
+
+		boolean canJoin(int t){
+			for(int key : sortedKeys[t])
+				if(slotOf[key] >= 0)
+					return true;
+
+			return false;
+		}
+
+		/**Prices the cheapest way of appending table t to this (loaded) plan without changing the plan. We price
+		 * many candidates for each one we append, so this must not depend on the number of keys in the database*/
+		Step price(int t){
+
+			int numJoinKeys = 0;
+			for(int key : sortedKeys[t])
+				if(slotOf[key] >= 0) ++numJoinKeys;
+
+			//Keys the table joins into the result on, in increasing order just like Join_Utility's join keys
+			int[] joinKeys = new int[numJoinKeys];
+			numJoinKeys = 0;
+			for(int key : sortedKeys[t])
+				if(slotOf[key] >= 0) joinKeys[numJoinKeys++] = key;
+
+			double outRows = rows * rowCounts[t];
+			for(int key : joinKeys)
+				outRows /= Math.max(distinct[slotOf[key]], distinctCounts[t][key]);
+
+			double probes = rows, search = log2(rowCounts[t] + 1);
+
+			//The hash iterator only searches for each distinct value of the join keys once
+			double distinctProbes = 1;
+			for(int key : joinKeys)
+				distinctProbes *= distinct[slotOf[key]];
+			distinctProbes = Math.min(probes, distinctProbes);
+
+			//Equal join keys arrive one after another if they are the first sort columns of the first table, see above.
+			//The keys of the first table the table joins on and the first table is not sorted on yet come next
+			int     prefix   = Math.min(numFirstSort, joinKeys.length);
+			int     unsorted = 0;
+			boolean grouped  = true;
+
+			for(int key : joinKeys){
+				boolean sorted = false;
+				for(int p = 0; p < prefix; ++p)
+					sorted |= firstSort[p] == key;
+
+				if(!sorted){
+					grouped &= Arrays.binarySearch(sortedKeys[order[0]], key) >= 0;
+					++unsorted;
+				}
+			}
+			grouped &= numFirstSort + unsorted <= joinKeys.length;
+
+			double sortMergeCost = probes + rowCounts[t] + outRows;
+			double joinCost      = probes + (grouped ? distinctProbes : probes)*search + outRows;
+			double hashCost      = probes + distinctProbes*search + probes*HASH_LOOKUP_COST + outRows;
+
+			//The first table is sorted on the join keys of the second, so the second table can always be merged
+			boolean canMerge = size == 1 || (mergeKeys != null && Arrays.equals(mergeKeys, joinKeys));
+
+			if(canMerge && sortMergeCost <= Math.min(joinCost, hashCost))
+				return new Step(t, SORT_MERGE, cost + sortMergeCost, outRows, joinKeys);
+			else if(joinCost <= hashCost)
+				return new Step(t, JOIN, cost + joinCost, outRows, joinKeys);
+			else
+				return new Step(t, HASH, cost + hashCost, outRows, joinKeys);
+		}
+
+		//Appends the table of step to this (loaded) plan
+		void append(Step step){
+
+			final int t = step.table;
+
+			order[size] = t;
+			types[size++] = step.type;
+			used[t] = true;
+
+			int capacity = numPresent + sortedKeys[t].length - step.joinKeys.length;
+			if(capacity > present.length){
+				present  = Arrays.copyOf(present, Math.max(capacity, 2*present.length));
+				distinct = Arrays.copyOf(distinct, present.length);
+			}
+
+			for(int key : sortedKeys[t]){
+				int slot = slotOf[key];
+
+				if(slot >= 0)
+					distinct[slot] = Math.min(distinct[slot], distinctCounts[t][key]);
+				else{
+					present[numPresent]  = key;
+					distinct[numPresent] = distinctCounts[t][key];
+					slotOf[key] = numPresent++;
+				}
+			}
+
+			for(int k = 0; k < numPresent; ++k)
+				if(distinct[k] > step.rows)
+					distinct[k] = Math.max(1, step.rows);
+
+			for(int key : step.joinKeys) //The first table is sorted on these keys next, see Join_Utility.generateSortCols()
+				if(Arrays.binarySearch(sortedKeys[order[0]], key) >= 0 && !sortsFirst(key))
+					firstSort[numFirstSort++] = key;
+
+			cost      = step.cost;
+			rows      = step.rows;
+			mergeKeys = step.type == SORT_MERGE ? step.joinKeys : null;
+		}
+
+		private boolean sortsFirst(int key){
+			for(int p = 0; p < numFirstSort; ++p)
+				if(firstSort[p] == key)
+					return true;
+
+			return false;
+		}
+
+		/**Returns the cheapest step appending a table that is not in this (loaded) plan. Tables sharing no key with the
+		 * plan are only considered if no other table is left*/
+		Step cheapestStep(){
+
+			Step cheapest = null;
+
+			for(int t = 0; t < tables.length; ++t){
+				if(used[t] || !canJoin(t)) continue;
+
+				Step step = price(t);
+				if(cheapest == null || step.cost < cheapest.cost)
+					cheapest = step;
+			}
+
+			if(cheapest != null)
+				return cheapest;
+
+			for(int t = 0; t < tables.length; ++t){ //We have to use a cross product
+				if(used[t]) continue;
+
+				Step step = price(t);
+				if(cheapest == null || step.cost < cheapest.cost)
+					cheapest = step;
+			}
+
+			return cheapest;
+		}
+	}
+
+	/**Appending a table to a plan: the iterator we would use for it and the estimated cost and rows of the new plan*/
+	private static class Step{
+
+		final int    table;
+		final int    type;
+		final double cost;
+		final double rows;
+		final int[]  joinKeys;
+
+		Step(int table, int type, double cost, double rows, int[] joinKeys){
+			this.table    = table;
+			this.type     = type;
+			this.cost     = cost;
+			this.rows     = rows;
+			this.joinKeys = joinKeys;
+		}
+	}
+
+
+	private Plan planWithDP(){
+
+		//The cheapest plan joining the tables in subset S appends bestStep[S] to the plan for subset bestBefore[S]
+		Plan[] plans      = new Plan[1 << tables.length];
+		Step[] bestStep   = new Step[plans.length];
+		int[]  bestBefore = new int[plans.length];
+
+		//Every subset is larger than its subsets, so we visit them before it
+		for(int subset = 1; subset < plans.length; ++subset){
+
+			Plan plan;
+
+			if(Integer.bitCount(subset) == 1){
+				if(!canScanFirst(Integer.numberOfTrailingZeros(subset)))
+					continue;
+
+				plan = new Plan(Integer.numberOfTrailingZeros(subset));
+				plan.load();
+			}
+			else if(bestStep[subset] != null){
+				plan = new Plan(plans[bestBefore[subset]]);
+				plan.load();
+				plan.append(bestStep[subset]);
+			}
+			else
+				continue; //We never build this subset without a cross product
+
+			plans[subset] = plan;
+
+			boolean crossProduct = true;
+			for(int t = 0; t < tables.length && crossProduct; ++t)
+				if(!plan.used[t] && plan.canJoin(t))
+					crossProduct = false;
+
+			for(int t = 0; t < tables.length; ++t){
+				if(plan.used[t] || !(crossProduct || plan.canJoin(t))) continue;
+
+				Step step     = plan.price(t);
+				int  superset = subset | (1 << t);
+
+				if(bestStep[superset] == null || step.cost < bestStep[superset].cost){
+					bestStep[superset]   = step;
+					bestBefore[superset] = subset;
+				}
+			}
+
+			plan.unload();
+		}
+
+		return plans[plans.length - 1];
+	}
+
+	private Plan planGreedily(){
+
+		Plan best = null;
+
+		//Small tables tend to make cheap first tables. Trying them first finds a cheap plan early, and since appending
+		//a table only adds cost, we can give up on the other first tables as soon as they cost more
+		Integer[] firsts = new Integer[tables.length];
+		for(int t = 0; t < tables.length; ++t)
+			firsts[t] = t;
+		Arrays.sort(firsts, (t1, t2) -> Double.compare(rowCounts[t1], rowCounts[t2]));
+
+		for(int first : firsts){
+
+			if(!canScanFirst(first))
+				continue;
+
+			Plan plan = new Plan(first);
+			plan.load();
+
+			while(plan.size < tables.length && (best == null || plan.cost < best.cost))
+				plan.append(plan.cheapestStep());
+
+			plan.unload();
+
+			if(plan.size == tables.length && (best == null || plan.cost < best.cost))
+				best = plan;
+		}
+
+		return best;
+	}
+
+	private boolean canScanFirst(int t){
+		return firstKey == -1 || Arrays.binarySearch(sortedKeys[t], firstKey) >= 0;
+	}
+
+	private static double log2(double x){
+		return Math.log(x)/Math.log(2);
+	}
+
+
+	public Table[] getJoinOrder(){
+		return joinOrder;
+	}
+
+	public int[] getIteratorTypes(){
+		return iteratorTypes;
+	}
+
+	//The estimated cost of the chosen plan
+	public double getCost(){
+		return cost;
+	}
+
+}
@@ -0,0 +1,44 @@
+package table;
+
+/**Wraps the iterator of a table of the join order to count its calls and time them, see JoinCounters. Join_Utility
+ * only wraps iterators when counting is enabled, so the engines call the iterators directly otherwise*/
+
+class CountingIterator implements TableIterator {
+
+	private final TableIterator iterator;
+	private final JoinCounters  counters;
+
+
+	CountingIterator(TableIterator iterator, JoinCounters counters){
+		this.iterator = iterator;
+		this.counters = counters;
+	}
+
+	@Override
+	public void synchronize(){
+		long start = System.nanoTime();
+		iterator.synchronize();
+		counters.addNanos(System.nanoTime() - start);
+		counters.add(JoinCounters.SYNCHRONIZES, 1);
+	}
+
+	@Override
+	public boolean hasNext(){
+		return iterator.hasNext();
+	}
+
+	@Override
+	public boolean increment(){
+		long start = System.nanoTime();
+		boolean keysChanged = iterator.increment();
+		counters.addNanos(System.nanoTime() - start);
+		counters.add(JoinCounters.ROWS, 1);
+		return keysChanged;
+	}
+
+	@Override
+	public int currentRow(){
+		return iterator.currentRow();
+	}
+
+}
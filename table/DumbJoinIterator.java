@@ -15,6 +15,7 @@ public class DumbJoinIterator implements TableIterator {
 	private final int[]       joinCols; //Columns in the table we are joining on 
 	private final int[]       joinKeys;
 	private final boolean[]   joinKeysAfter;
+	private final JoinCounters counters;
 	
 	private static final int  NULL = -3;  	 
 	private static final int  EMPTY = -2;    //The iterator has no rows left to produce which match current key
@@ -54,6 +55,7 @@ public class DumbJoinIterator implements TableIterator {
 		this.firstAppearingCols = data.getFirstAppearingCols(ID);
 		this.joinKeys           = data.getJoinKeys(ID);
 		this.joinKeysAfter      = data.getJoinKeysAfter(ID);
+		this.counters           = data.getCounters(ID);
 
 	}
 
@@ -76,6 +78,7 @@ public class DumbJoinIterator implements TableIterator {
 		//If the key has not changed, we already know the start row
 		if(!keysChanged && lastStartRow != NULL){
 			nextRow = lastStartRow; 
+			if(JoinCounters.ENABLED) counters.add(JoinCounters.START_ROW_HITS, 1);
 			return;
 		}
 
@@ -0,0 +1,70 @@
+package table;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**Describes how a query ran: the join order the planner chose and, for each table of it (a node of the plan), its
+ * iterator, the columns it is sorted on, the keys it joins on and what its counters observed. The engines build it
+ * with their explainAnalyze() entry points, e.g. JoinAlg2.explainAnalyze().
+ *
+ * The counts and the times of the nodes are only collected when counting is enabled, see JoinCounters. The time of a
+ * node is the time spent in its iterator's synchronize() and increment(), so it excludes the engine's aggregation
+ */
+
+public class ExplainAnalyze {
+
+	private static final String[] ITERATOR_NAMES = { "StartIterator", "SortMergeJoinIterator", "JoinIterator", "HashIterator" };
+
+	/**Formats the report of a query the engine named engine ran on data in totalNanos nanoseconds*/
+	public static String report(String engine, Join_Utility data, long totalNanos){
+
+		Table[]       order  = data.getJoinOrder();
+		StringBuilder report = new StringBuilder();
+
+		report.append(String.format(Locale.ROOT, "EXPLAIN ANALYZE %s: %.3f ms%n", engine, totalNanos/1e6));
+
+		List<String> names = new ArrayList<String>();
+		for(Table table : order)
+			names.add(table.name);
+		report.append("Join order: ").append(String.join(" -> ", names)).append(String.format("%n"));
+
+		if(!JoinCounters.ENABLED)
+			report.append(String.format("Counting is off, run with -Djoin.counters=true to count and time each node%n"));
+
+		for(int t = 0; t < order.length; ++t){
+
+			Table table = order[t];
+
+			List<String> sortCols = new ArrayList<String>();
+			for(int col : data.getSortCols(t))
+				sortCols.add(table.getAttribute(col));
+
+			List<String> joinKeys = new ArrayList<String>();
+			for(int key : data.getJoinKeys(t))
+				joinKeys.add(data.getAttribute(key));
+
+			report.append(String.format(Locale.ROOT, "%n[%d] %s (%d rows)%n", t, table.name, table.getSize()));
+			line(report, "iterator", ITERATOR_NAMES[data.getIteratorType(t)]);
+			line(report, "sorted on", sortCols.isEmpty() ? "-" : String.join(", ", sortCols));
+			line(report, "joins on", joinKeys.isEmpty() ? "-" : String.join(", ", joinKeys));
+
+			if(!JoinCounters.ENABLED)
+				continue;
+
+			JoinCounters counters = data.getCounters(t);
+			line(report, "time", String.format(Locale.ROOT, "%.3f ms", counters.getNanos()/1e6));
+
+			for(int c = 0; c < JoinCounters.NUM_COUNTERS; ++c)
+				if(counters.get(c) != 0)
+					line(report, JoinCounters.NAMES[c], Long.toString(counters.get(c)));
+		}
+
+		return report.toString();
+	}
+
+	private static void line(StringBuilder report, String label, String value){
+		report.append(String.format("    %-19s %s%n", label + ":", value));
+	}
+
+}
@@ -50,6 +50,7 @@ public class HashIterator implements TableIterator {
 	private final int[] 	  firstAppearingKeys;
 	private final int[] 	  firstAppearingCols;
 	private final boolean[]   joinKeysAfter;
+	private final JoinCounters counters;
 	private final Map<JoinKey, Integer> matchingRows = new HashMap<JoinKey, Integer>();
 	
 	private final static boolean DIRTY = true; 
@@ -82,6 +83,7 @@ public class HashIterator implements TableIterator {
 		this.firstAppearingCols = data.getFirstAppearingCols(ID);
 		this.joinKeysAfter      = data.getJoinKeysAfter(ID);
 		this.joinKeys      		= data.getJoinKeys(ID);
+		this.counters           = data.getCounters(ID);
 
 
 	}
@@ -131,12 +133,10 @@ private class JoinKey{
 
 		nextRow = matchingRows.get(curr);
 		
-		
-		//if(nextRow != null){
-		//	System.err.println("hashed!!");
-		//	return;
-		//}
-		
+		if(nextRow != null){ //We have seen these keys before, so we already know their first row
+			if(JoinCounters.ENABLED) counters.add(JoinCounters.HASH_HITS, 1);
+			return;
+		}
 		
 		//Otherwise search for it
 		//We can do a binary search since we sort the table on the keys
@@ -147,6 +147,7 @@ private class JoinKey{
 
 
 		nextRow = relation.binarySearch(searchKey);
+		if(JoinCounters.ENABLED) counters.add(JoinCounters.BINARY_SEARCHES, 1);
 		
 
 		if(nextRow < 0)
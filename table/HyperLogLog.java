@@ -0,0 +1,47 @@
+package table;
+
+/**HyperLogLog sketch estimating the number of distinct values in a stream with a fixed amount of memory.
+ *
+ * Each value is hashed to 64 bits. The first PRECISION bits pick one of the registers and the register remembers the
+ * longest run of leading zeros seen in the remaining bits. Long runs are rare, so the runs recorded in the registers
+ * tell how many distinct hashes were seen. The standard error of the estimate is about 1.04/sqrt(REGISTERS), 1.6% here
+ */
+
+public class HyperLogLog {
+
+	private static final int    PRECISION = 12;
+	private static final int    REGISTERS = 1 << PRECISION;
+	private static final double ALPHA     = 0.7213/(1 + 1.079/REGISTERS); //Bias correction of the estimate
+
+	private final byte[] registers = new byte[REGISTERS];
+
+	public void add(double value){
+
+		long hash = Values.mix(Double.doubleToLongBits(Values.normalize(value)));
+
+		int register = (int) (hash >>> (64 - PRECISION));
+		byte run     = (byte) (Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1);
+
+		if(run > registers[register])
+			registers[register] = run;
+	}
+
+	public long estimate(){
+
+		double sum = 0; int emptyRegisters = 0;
+
+		for(byte run : registers){
+			sum += 1.0/(1L << run);
+			if(run == 0) ++emptyRegisters;
+		}
+
+		double estimate = ALPHA*REGISTERS*REGISTERS/sum;
+
+		//With few distinct values many registers stay empty, and counting those is more accurate
+		if(estimate <= 2.5*REGISTERS && emptyRegisters > 0)
+			estimate = REGISTERS*Math.log((double) REGISTERS/emptyRegisters);
+
+		return Math.round(estimate);
+	}
+
+}
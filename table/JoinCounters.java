@@ -0,0 +1,50 @@
+package table;
+
+/**Counts what happens at one table of the join order while a query runs, for ExplainAnalyze. The iterator of the
+ * table counts the work of finding matching rows and the engine counts the work of aggregating them.
+ *
+ * Counting is switched on by starting the JVM with -Djoin.counters=true. Every update is guarded by ENABLED, which is a
+ * static final, so when counting is off the JIT folds the guard to false and removes the updates from the hot paths.
+ * The counters of a query belong to its Join_Utility and are only updated by the thread running the query
+ */
+
+public class JoinCounters {
+
+	public static final boolean ENABLED = Boolean.getBoolean("join.counters");
+
+	//What is counted, the index of each counter
+	public static final int SYNCHRONIZES     = 0;  //Calls of TableIterator.synchronize()
+	public static final int ROWS             = 1;  //Rows the iterator produced, calls of increment()
+	public static final int BINARY_SEARCHES  = 2;  //Searches for the first row matching new join keys
+	public static final int START_ROW_HITS   = 3;  //Synchronizations that reused the start row of unchanged keys
+	public static final int SCAN_STEPS       = 4;  //Rows stepped over one at a time looking for a match (sort merge)
+	public static final int ZONE_SKIPPED     = 5;  //Rows jumped over because their zone map ruled the keys out
+	public static final int HASH_HITS        = 6;  //Synchronizations that took the start row from the hash cache, no search
+	public static final int AGGREGATE_CALLS  = 7;  //Blocks, rows or batches the engine aggregated
+	public static final int SKIPPED_ROWS     = 8;  //Rows whose aggregates were reused from the first row of their block
+	public static final int NUM_COUNTERS     = 9;
+
+	static final String[] NAMES = { "synchronizes", "rows", "binary searches", "start row hits", "scan steps",
+									"zone skipped rows", "hash hits", "aggregate calls", "skipped rows" };
+
+	private final long[] counts = new long[NUM_COUNTERS];
+	private       long   nanos; //Time spent in the iterator's synchronize() and increment()
+
+
+	public void add(int counter, long n){
+		counts[counter] += n;
+	}
+
+	public void addNanos(long n){
+		nanos += n;
+	}
+
+	public long get(int counter){
+		return counts[counter];
+	}
+
+	public long getNanos(){
+		return nanos;
+	}
+
+}
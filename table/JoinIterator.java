@@ -47,6 +47,7 @@ public class JoinIterator implements TableIterator {
 	private final int[] 	  firstAppearingKeys;
 	private final int[] 	  firstAppearingCols;
 	private final boolean[]   joinKeysAfter;
+	private final JoinCounters counters;
 	
 	private final static boolean DIRTY = true; 
 	private final static boolean CLEAN = false;
@@ -77,6 +78,7 @@ public class JoinIterator implements TableIterator {
 		this.firstAppearingCols = data.getFirstAppearingCols(ID);
 		this.joinKeysAfter      = data.getJoinKeysAfter(ID);
 		this.joinKeys      		= data.getJoinKeys(ID);
+		this.counters           = data.getCounters(ID);
 
 
 	}
@@ -101,6 +103,7 @@ public class JoinIterator implements TableIterator {
 		//If the key has not changed, we already know the start row
 		if(!keysChanged && lastStartRow != NULL){
 			nextRow = lastStartRow; 
+			if(JoinCounters.ENABLED) counters.add(JoinCounters.START_ROW_HITS, 1);
 			return;
 		}
 
@@ -113,6 +116,7 @@ public class JoinIterator implements TableIterator {
 
 
 		nextRow = relation.binarySearch(searchKey);
+		if(JoinCounters.ENABLED) counters.add(JoinCounters.BINARY_SEARCHES, 1);
 		
 
 		if(nextRow < 0)
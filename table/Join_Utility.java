@@ -5,16 +5,20 @@ package table;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+/* Sets of keys are kept as BitSets and lists of keys and columns as int arrays so that planning stays fast
+ * for schemas with thousands of attributes and dozens of tables
+ */
+
 public class Join_Utility {
 
-	private final Map<Table, Map<Table, Set<Integer>>> commonKeys; 
+	private final Map<Table, BitSet>   keySets = new HashMap<Table, BitSet>(); //The keys in the schema of each table
 	private final List<String>      	   attributes = new ArrayList<String>();
 	private final Map<String, Integer> attributeToKey = new HashMap<String, Integer>(); //Maps attributes to their corresponding IDs
 
@@ -22,6 +26,7 @@ public class Join_Utility {
 	private final Table[]           joinOrder;
 	private final int[][]           joinKeys; //Keys that we are joining on at each step of the join
 	private final int[][]           sortKeys; //Keys that we are joining on at each step of the join
+	private final int[]             iteratorTypes; //Which iterator each table of the join order uses, see CostBasedPlanner
 	
 	private final int[][]           firstAppearingKeys; //Keys that appear for the first time in the join order at table t
     private final int[][]           firstAppearingCols; //Columns corresponding the the firstAppearingKeys
@@ -41,51 +46,64 @@ public class Join_Utility {
 
 	private final int				numKeys;
 	private final int[][]  			keysToAggregateOn;
+	private final int               groupKey;           //Key of the group by attribute, -1 without group by
+	private final JoinCounters[]    counters;           //What happened at each table of the join order, see JoinCounters
+	
+	private int[][][]               monomialCols;       //monomialCols[t][h] lists the columns of table t whose product is monomial h
+	private int[][]                 monomialSteps;      //Triples (partial sum, monomial of table t, partial sum of table t+1)
+	private int[]                   numPartialSums;     //Partial sums of monomials at each table, see prepareMonomials()
+	private int[]                   monomialResults;    //Partial sum of the first table holding each requested monomial
 
 	
-	public Join_Utility(Table[] tables, String[][] strAggs){
-		
+	public Join_Utility(Table[] init_tables, String[][] strAggs){
+		this(init_tables, strAggs, null);
+	}
+	
+	/**Prepares a join whose aggregates are grouped on the attribute groupBy (no grouping if null). The join order then 
+	 * starts with a table holding groupBy, and the iterator of the first table reports the join keys as changed whenever 
+	 * groupBy changes, so that no block of rows the algorithms aggregate at once spans two groups*/
+	public Join_Utility(Table[] init_tables, String[][] strAggs, String groupBy){
+		this(init_tables, strAggs, groupBy, new Condition[0]);
+	}
+
+	/**Prepares a join of the rows satisfying all conditions in where. Each condition is pushed down to the tables holding
+	 * its attribute, which drop the rows failing it before the plan is made, see Condition*/
+	public Join_Utility(Table[] init_tables, String[][] strAggs, String groupBy, Condition[] where){
+
+		for(Condition condition : where){
+			boolean found = false;
+			for(Table table : init_tables)
+				found |= Arrays.asList(table.getSchema()).contains(condition.getAttribute());
+
+			if(!found)
+				throw new IllegalArgumentException("No table has the attribute " + condition.getAttribute() + " of " + condition);
+		}
+
+		//Work on views of the tables so that assigning keys and sorting never modifies the tables passed in,
+		//which may be shared with other queries
+		Table[] tables = new Table[init_tables.length];
+		for(int t = 0; t < tables.length; ++t)
+			tables[t] = init_tables[t].select(where).view();
+
 		this.tables = tables;
-		String strAttribute;
 
 		//Identify all attributes in database and give each one a unique ID which we refer to as a "key"
 		
+		attributes.addAll(numberAttributes(tables));
+		for(int key = 0; key < attributes.size(); ++key)
+			attributeToKey.put(attributes.get(key), key);
+		
 		for(Table table: tables){
 			int[] newKeys = new int[table.getSchema().length];
+			BitSet keySet = new BitSet(attributes.size());
+			
 			for(int a = 0; a < table.getSchema().length; ++a){
-				strAttribute = table.getAttribute(a);
-				if(!attributeToKey.containsKey(strAttribute)){ //Attribute has not yet been observed
-					attributeToKey.put(strAttribute, attributes.size());
-					attributes.add(strAttribute);					
-				}
-				newKeys[a] = attributeToKey.get(strAttribute);
+				newKeys[a] = attributeToKey.get(table.getAttribute(a));
+				keySet.set(newKeys[a]);
 			}
 		
 			table.setKeys(newKeys);
-		}
-		
-		commonKeys = new HashMap<Table, Map<Table, Set<Integer>>>(); 
-		
-		Set<Integer> comKeys;
-
-		for(Table right : tables){
-			
-			Map<Table, Set<Integer>> inCommon = new HashMap<Table, Set<Integer>>(); 
-
-			for(Table left : commonKeys.keySet()){
-
-				comKeys = new HashSet<Integer>();
-
-				for(String atR : right.getSchema()){
-					for(String atL : left.getSchema())
-						if(atR.equals(atL)) comKeys.add(attributeToKey.get(atR));
-				}
-
-				inCommon.put(left, comKeys);
-				commonKeys.get(left).put(right, comKeys);
-			
-			}
-			commonKeys.put(right, inCommon);
+			keySets.put(table, keySet);
 		}
 	
 
@@ -99,15 +117,27 @@ public class Join_Utility {
 		}
 		else keysToAggregateOn = null;
 		
+		if(groupBy != null && !attributeToKey.containsKey(groupBy))
+			throw new IllegalArgumentException("No table has the attribute " + groupBy + " to group by");
+		
+		groupKey  = groupBy != null ? getKey(groupBy) : -1;
+		
 		joinKeys  = new int[tables.length][];
 		sortKeys  = new int[tables.length][]; 
 		this.numKeys = attributes.size();
 		joinKeysAfter = new boolean[tables.length][numKeys];
+		iteratorTypes = new int[tables.length];
+		counters      = new JoinCounters[tables.length];
+		for(int t = 0; t < tables.length; ++t)
+			counters[t] = new JoinCounters();
 
 
 		this.joinOrder = makeQueryPlan();
 		generateSortCols();
 		
+		if(groupKey != -1)
+			joinKeysAfter[0][groupKey] = true;
+		
 		//For part 2
 		firstAppearingKeys = new int[tables.length][];
 		firstAppearingCols = new int[tables.length][];
@@ -130,17 +160,48 @@ public class Join_Utility {
 	
 	}
 	
+	/**Returns the attributes of the tables ordered by their IDs. An attribute gets the next free ID the first time
+	 * it appears in the schemas of the tables, in the order the tables are given. The rows and columns of the aggregate
+	 * matrices the algorithms return are indexed by these IDs*/
+	public static List<String> numberAttributes(Table[] tables){
+		
+		List<String> numbered = new ArrayList<String>();
+		Set<String>  observed = new HashSet<String>();
+		
+		for(Table table: tables)
+			for(String attribute : table.getSchema())
+				if(observed.add(attribute)) //Attribute has not yet been observed
+					numbered.add(attribute);
+		
+		return numbered;
+	}
+	
+	//The keys both tables have in their schema
+	private BitSet commonKeySet(Table t1, Table t2){
+		
+		BitSet common = (BitSet) keySets.get(t1).clone();
+		common.and(keySets.get(t2));
+		
+		return common;
+	}
+	
 	public Set<Integer> getCommonKeys(Table t1, Table t2){
 		
-		return commonKeys.get(t1).get(t2);
+		BitSet common = commonKeySet(t1, t2);
+		Set<Integer> toReturn = new HashSet<Integer>();
+		
+		for(int key = common.nextSetBit(0); key >= 0; key = common.nextSetBit(key + 1))
+			toReturn.add(key);
+		
+		return toReturn;
 	}
 	
 	public Set<String> getCommonAtts(Table t1, Table t2){
 
-		Set<Integer> keys =  commonKeys.get(t1).get(t2);
+		BitSet keys = commonKeySet(t1, t2);
 		Set<String>  toReturn = new HashSet<String>();
 		
-		for(Integer key: keys){
+		for(int key = keys.nextSetBit(0); key >= 0; key = keys.nextSetBit(key + 1)){
 			toReturn.add(attributes.get(key));
 		}
 		
@@ -159,7 +220,7 @@ public class Join_Utility {
 	
 	public int numCommon(Table t1, Table t2){
 		
-		return commonKeys.get(t1).get(t2).size();
+		return commonKeySet(t1, t2).cardinality();
 	}
 	
 	
@@ -179,82 +240,44 @@ public class Join_Utility {
 
 
 	/**Function: makeQueryPlan()
-	 * A function generates a join ordering by starting with the first table, picking a table that can be joined with it to form a 
-	 * result table. Afterwards we pick a table that can be joined with the result table and so on. We assume that 
-	 * in real life a better query planner would be available. The only optimization that exists here is that we try to
-	 * start the join order with as many tables as possible that are joined on the same key, so we can do a sort merge type join	 */
+	 * Takes the join order and the iterator of each table from the cost based planner (see CostBasedPlanner)
+	 * and computes the keys each table joins into the result table on. A table joins on all the keys it shares
+	 * with the tables before it in the join order	 */
 
 	private Table[] makeQueryPlan(){
 
-		Set<Table> unused    = new HashSet<Table>(); //Maintain a set of tables that are yet to be joined
+		CostBasedPlanner planner = new CostBasedPlanner(tables, numKeys, groupKey);
 		
-		Table[] order    = new Table[tables.length];
-
-		for(Table tbl : tables) unused.add(tbl);
-
-		Set<Integer> currSchema = new HashSet<Integer>(); //The schema of the result table 
-
-		Table first = unused.iterator().next(); 
-
-		order[0] = first;          //Start the join with the first table 
-		unused.remove(first);
-
-		for(Integer att : first.getKeys()) currSchema.add(att);
-
-		Set<Integer> lastCommonKeys = null; //The keys joined on last time; we try to join on same keys as long as we can
-		//to optimize the joins
+		Table[] order = planner.getJoinOrder();
+		System.arraycopy(planner.getIteratorTypes(), 0, iteratorTypes, 0, tables.length);
+		
+		BitSet currSchema = (BitSet) keySets.get(order[0]).clone(); //The schema of the result table 
 		
 		joinKeys[0] = new int[0];
 
 		for(int join = 1; join < tables.length; ++join){
-			Table   currentBest = null; Table right = null;
-			Iterator<Table> it = unused.iterator();
-			
-			while(it.hasNext()){
-				right = it.next();
-				Set<Integer> keysShared = commonKeys(currSchema, right);
-
-				if(keysShared.size() > 0 && (currentBest == null || keysShared.equals(lastCommonKeys))){ //can only join tables with common attributes
-				
-					     if(keysShared.equals(lastCommonKeys)){ //Prefer to join table on same key as last time, so can optimize with sorting
-					    	 currentBest = right;
-					    	 break;
-					     }
-				    	 currentBest = right;
-			}
-				
-				}
-			
-			lastCommonKeys = commonKeys(currSchema, currentBest);
-									
-			joinKeys[join] = new int[lastCommonKeys.size()];
 			
-			int x = 0;
-			for(int key: lastCommonKeys)
-				joinKeys[join][x++] = key;
-			
-			Arrays.sort(joinKeys[join]); //Always keep join keys in the same order for simplicity to make
-										 //it easy to sort on the same keys in the same order always
+			BitSet keysShared = (BitSet) keySets.get(order[join]).clone();
+			keysShared.and(currSchema);
 			
-			order[join] = currentBest;
-			unused.remove(currentBest);
+			joinKeys[join] = keysShared.stream().toArray(); //BitSets list keys in increasing order. Always keep join keys in the same
+															//order for simplicity to make it easy to sort on the same keys in the same order always
 			
-			for(Integer att : currentBest.getKeys())
-				currSchema.add(att);
+			currSchema.or(keySets.get(order[join]));
 						
 		}
 						
-		Set<Integer> setJoinKeysAfter = new HashSet<Integer>();
+		BitSet setJoinKeysAfter = new BitSet(numKeys);
 		
 		
 		for(int join = tables.length-1; join >= 0; --join){
 			
-			for(int key: setJoinKeysAfter)
+			for(int key = setJoinKeysAfter.nextSetBit(0); key >= 0; key = setJoinKeysAfter.nextSetBit(key + 1))
 				joinKeysAfter[join][key] = true;
 			
 			
 			for(int key: joinKeys[join])
-				setJoinKeysAfter.add(key);
+				setJoinKeysAfter.set(key);
 						
 		}
 		
@@ -278,53 +301,30 @@ public class Join_Utility {
 	
 	private void generateSortCols(){
 		
-		List<Integer> sKeys = new ArrayList<Integer>();
-		int column;
-		Table table = joinOrder[0];
-
-		//Determine the columns to sort on for the first table
-
-		for(int jKey = 1; jKey < joinKeys.length; ++jKey){
-			for(int key: joinKeys[jKey]){
-
-				column = table.keyToCol(key);
-				if(column != -1 && !sKeys.contains(column))
-					sKeys.add(column);
-
-			}
-
-		}
-		
-		sortKeys[0] = new int[sKeys.size()];
-		
-		for(int sk = 0; sk < sKeys.size(); ++sk)
-			sortKeys[0][sk] = sKeys.get(sk);
-		
-		sKeys.clear();
-
-		for(int t = 1; t < joinOrder.length; ++t){
+		for(int t = 0; t < joinOrder.length; ++t){
 			
-			table = joinOrder[t];
+			Table table = joinOrder[t];
+			int[] sKeys = new int[table.numCols()];
+			boolean[] added = new boolean[table.numCols()];
+			int numSortCols = 0;
 			
-			//Determine the columns to sort on
+			//Determine the columns to sort on. The first table has no join keys of its own (joinKeys[0] is empty),
+			//so it is sorted on the join keys of the second table first
 
 			for(int jKey = t; jKey < joinKeys.length; ++jKey){
 				for(int key: joinKeys[jKey]){
 
-					column = table.keyToCol(key);
-					if(column != -1 && !sKeys.contains(column))
-						sKeys.add(column);
+					int column = table.keyToCol(key);
+					if(column != -1 && !added[column]){
+						added[column] = true;
+						sKeys[numSortCols++] = column;
+					}
 
 				}
 
 			}
 			
-			sortKeys[t] = new int[sKeys.size()];
-			
-			for(int sk = 0; sk < sKeys.size(); ++sk)
-				sortKeys[t][sk] = sKeys.get(sk);
-			
-			sKeys.clear();
+			sortKeys[t] = Arrays.copyOf(sKeys, numSortCols);
 		
 		}
 		
@@ -347,6 +347,31 @@ public class Join_Utility {
 	
 	
 	
+	public int getIteratorType(int table){
+		return iteratorTypes[table];
+	}
+	
+	/**Creates the iterator the query plan chose for table ID of the join order. All the iterators of a join
+	 * share keyValues, the current value of each key. The iterator is wrapped to count its calls if counting is enabled*/
+	public TableIterator makeIterator(int ID, double[] keyValues){
+		
+		TableIterator iterator;
+		
+		switch(iteratorTypes[ID]){
+			case CostBasedPlanner.START:      iterator = new StartIterator(this, keyValues);              break;
+			case CostBasedPlanner.SORT_MERGE: iterator = new SortMergeJoinIterator(this, ID, keyValues);  break;
+			case CostBasedPlanner.HASH:       iterator = new HashIterator(this, ID, keyValues);           break;
+			default:                          iterator = new JoinIterator(this, ID, keyValues);
+		}
+		
+		return JoinCounters.ENABLED ? new CountingIterator(iterator, counters[ID]) : iterator;
+	}
+	
+	//The counters of table ID of the join order, only updated if JoinCounters.ENABLED
+	public JoinCounters getCounters(int ID){
+		return counters[ID];
+	}
+	
 	public Table[] getTables(){
 		return tables;
 	}
@@ -366,32 +391,24 @@ public class Join_Utility {
 	
 	private void calcFirstAppearingKeys(){
 		
-		Set<Integer> notYetAppeared = new HashSet<Integer>(attributes.size());
-		List<Integer> appearingKeys = new ArrayList<Integer>();
-		
-		for(int a = 0; a < attributes.size(); ++a) notYetAppeared.add(a);
+		boolean[] appeared = new boolean[numKeys];
 		
 		for(int t = 0; t < joinOrder.length; ++t){
 			Table table = joinOrder[t];
+			int[] keysToAdd = new int[table.numCols()];
+			int[] colsToAdd = new int[table.numCols()];
+			int numAppearing = 0;
+			
 			for(int key : table.getKeys()){
-				if(notYetAppeared.contains(key)){ //We found a key that appears for the first time in the join order
-					appearingKeys.add(key);
-					notYetAppeared.remove(key);
+				if(!appeared[key]){ //We found a key that appears for the first time in the join order
+					appeared[key] = true;
+					keysToAdd[numAppearing] = key;
+					colsToAdd[numAppearing++] = table.keyToCol(key);
 				}
 			}
-			int[] keysToAdd = new int[appearingKeys.size()];
-			int[] colsToAdd = new int[appearingKeys.size()];
-
-			for(int k = 0; k < appearingKeys.size(); ++k){
-				keysToAdd[k] = appearingKeys.get(k);
-				colsToAdd[k] = table.keyToCol(keysToAdd[k]);
-				
-			}
 			
-			firstAppearingKeys[t] = keysToAdd;
-			firstAppearingCols[t] = colsToAdd;
-			
-			appearingKeys.clear();
+			firstAppearingKeys[t] = Arrays.copyOf(keysToAdd, numAppearing);
+			firstAppearingCols[t] = Arrays.copyOf(colsToAdd, numAppearing);
 		}
 	}
 	/**calcKeysAfter()
@@ -409,33 +426,27 @@ public class Join_Utility {
 	 */
 	private void calcKeysAfter(){
 		
-		Set<Integer> setKeysAfter = new HashSet<Integer>();
+		BitSet setKeysAfter = new BitSet(numKeys);
 		
 		for(int t = tables.length - 1; t >= 0; --t){
 			
+			//Compute the keys exclusively appearing after the table in the join order
+			keysAfter[t] = setKeysAfter.stream().toArray();
+			
+			final int[] after = keysAfter[t];
+			final int[] here  = firstAppearingKeys[t];
+			
 			//Calculate the aggregates that would need to be updated in the event of 
 			//duplicate join key (one of our optimizations in second algorithm)
 			//These are all the aggregate pairs that always after the current table in the 
 			//join order i.e. we compute SUM(AB) where A and B only appear after table T in join order
 			
-			aggsLater[t]     = new int[(setKeysAfter.size())*(1+setKeysAfter.size())/2];
+			aggsLater[t]     = new int[after.length*(1+after.length)/2];
 			
 			int x = 0;
-			for(int k1 : setKeysAfter)
-				for(int k2: setKeysAfter){
-					if(k2 < k1) continue; //If we do SUM(AB), we do not need SUM(BA)
-
-					aggsLater[t][x++] = k1*numKeys + k2;
-
-				}
-
-			keysAfter[t] = new int[setKeysAfter.size()];
-
-			Iterator<Integer> it = setKeysAfter.iterator();
-			
-			//Compute the keys exclusively appearing after the table in the join order
-			for(int k = 0; k < setKeysAfter.size(); ++k)
-				keysAfter[t][k] = it.next();
+			for(int k1 = 0; k1 < after.length; ++k1)
+				for(int k2 = k1; k2 < after.length; ++k2) //If we do SUM(AB), we do not need SUM(BA)
+					aggsLater[t][x++] = after[k1]*numKeys + after[k2];
 			
 			
 			/*Arrange for computation of aggregates like SUM(XA)
@@ -443,12 +454,12 @@ public class Join_Utility {
 			 * and   A is a key that always appears later in the join order
 			 */
 			
-			mixedAggs[t]	    = new int[setKeysAfter.size() * firstAppearingKeys[t].length*2];
-			writeMixedAggsIn[t] = new int[setKeysAfter.size() * firstAppearingKeys[t].length];
+			mixedAggs[t]	    = new int[after.length * here.length*2];
+			writeMixedAggsIn[t] = new int[after.length * here.length];
 			
 			int y = 0;
-			for(int afterK: setKeysAfter){
-				for(int hereK: firstAppearingKeys[t]){
+			for(int afterK: after){
+				for(int hereK: here){
 					writeMixedAggsIn[t][y/2] = Math.min(afterK, hereK)*numKeys + Math.max(afterK, hereK); //Where to store aggregate
 					mixedAggs[t][y++] = afterK;	
 					mixedAggs[t][y++] = hereK;
@@ -458,13 +469,13 @@ public class Join_Utility {
 			
 			//Compute aggregates SUM(XY) such that X and Y are two keys that appear for the first time
 			//in the join order at table t 
-			sameTableAggs[t] 	= new int[firstAppearingKeys[t].length*(firstAppearingKeys[t].length+1)/2];
-			sameTableAggCols[t] = new int[firstAppearingKeys[t].length*(firstAppearingKeys[t].length+1)];
+			sameTableAggs[t] 	= new int[here.length*(here.length+1)/2];
+			sameTableAggCols[t] = new int[here.length*(here.length+1)];
 
 			
 			int z = 0;
-			for(int k1 : firstAppearingKeys[t])
-				for(int k2: firstAppearingKeys[t]){
+			for(int k1 : here)
+				for(int k2: here){
 					if(k2 < k1) continue; //If we do SUM(AB), we do not need SUM(BA)
 					
 					sameTableAggs[t][z/2] 		= k1*numKeys+k2; //Location in aggregate array the aggregate will be stored
@@ -477,8 +488,8 @@ public class Join_Utility {
 			
 			
 			//Add the keys that never appear earlier in the join order to the set of keys exclusively appearing after T-1
-			for(int key : firstAppearingKeys[t])
-				setKeysAfter.add(key);
+			for(int key : here)
+				setKeysAfter.set(key);
 			
 		}
 	
@@ -486,114 +497,203 @@ public class Join_Utility {
 	}
 
 
-	private boolean aggExists(int A, int B){
-		for(int[] agg: keysToAggregateOn)
-			if((agg[0] == A) && (agg[1] == B)) 
-				return true;
-
-		return false;
-
+	/**Pre-computes the "directions" for the aggregates SUM(X1*X2*...*Xd) of any degree (see algo2.JoinAlgMonomials).
+	 * Each monomial is given as the attributes it multiplies, an attribute may appear more than once.
+	 * 
+	 * Like with degree 2, we split a monomial M at table t into the attributes appearing for the first time at t, H, and
+	 * those first appearing after t, L. The partial sum of M at table t, the sum of M over the join of tables t,...,N with
+	 * the keys the join currently has, is then
+	 * 
+	 * 		PARTIAL_t(M) = SUM(H over the rows of t matching the keys) * PARTIAL_t+1(L)
+	 * 
+	 * since the rows of t matching the same join keys all join with the same rows of the later tables. The split is unique,
+	 * so each monomial needs one partial sum per table and one multiplication per block of rows, whatever its degree.
+	 * 
+	 * At each table, partial sum 0 and monomial 0 are the empty product. These are the number of joined rows and the number 
+	 * of rows of the block respectively	 */
+	public void prepareMonomials(String[][] monomials){
+		
+		int[] appearsAt = new int[numKeys]; //Table of the join order where each key first appears
+		for(int t = 0; t < joinOrder.length; ++t)
+			for(int key : firstAppearingKeys[t])
+				appearsAt[key] = t;
+		
+		List<Map<List<Integer>, Integer>> partialSums = new ArrayList<Map<List<Integer>, Integer>>();
+		List<Map<List<Integer>, Integer>> products    = new ArrayList<Map<List<Integer>, Integer>>();
+		
+		for(int t = 0; t <= joinOrder.length; ++t){
+			partialSums.add(new HashMap<List<Integer>, Integer>());
+			products.add(new HashMap<List<Integer>, Integer>());
+			partialSums.get(t).put(new ArrayList<Integer>(), 0);
+			products.get(t).put(new ArrayList<Integer>(), 0);
+		}
+		
+		List<List<int[]>> steps    = new ArrayList<List<int[]>>();
+		List<Set<Integer>> computed = new ArrayList<Set<Integer>>(); //Partial sums we already have a step for
+		for(int t = 0; t < joinOrder.length; ++t){
+			steps.add(new ArrayList<int[]>());
+			computed.add(new HashSet<Integer>());
+		}
+		
+		monomialResults = new int[monomials.length];
+		
+		for(int m = 0; m < monomials.length; ++m){
+			
+			int[] keys = new int[monomials[m].length];
+			for(int f = 0; f < keys.length; ++f){
+				if(!attributeToKey.containsKey(monomials[m][f]))
+					throw new IllegalArgumentException("No table has the attribute " + monomials[m][f]);
+				keys[f] = getKey(monomials[m][f]);
+			}
+			Arrays.sort(keys);
+			
+			for(int t = 0; t < joinOrder.length; ++t){
+				
+				List<Integer> rest = new ArrayList<Integer>(), here = new ArrayList<Integer>(), later = new ArrayList<Integer>();
+				for(int key : keys){
+					if(appearsAt[key] >= t) rest.add(key);
+					if(appearsAt[key] == t) here.add(key);
+					if(appearsAt[key] >  t) later.add(key);
+				}
+				
+				if(rest.isEmpty()) //So are the partial sums at the tables after t
+					break;
+				
+				int target = intern(partialSums.get(t), rest);
+				if(!computed.get(t).add(target)) //Another monomial already needs this partial sum and so the ones after it
+					break;
+				
+				steps.get(t).add(new int[]{target, intern(products.get(t), here), intern(partialSums.get(t+1), later)});
+			}
+			
+			List<Integer> all = new ArrayList<Integer>();
+			for(int key : keys)
+				all.add(key);
+			monomialResults[m] = partialSums.get(0).get(all);
+		}
+		
+		monomialCols   = new int[joinOrder.length][][];
+		monomialSteps  = new int[joinOrder.length][];
+		numPartialSums = new int[joinOrder.length + 1];
+		
+		for(int t = 0; t <= joinOrder.length; ++t)
+			numPartialSums[t] = partialSums.get(t).size();
+		
+		for(int t = 0; t < joinOrder.length; ++t){
+			
+			monomialCols[t] = new int[products.get(t).size()][];
+			for(Map.Entry<List<Integer>, Integer> product : products.get(t).entrySet()){
+				int[] cols = new int[product.getKey().size()];
+				for(int f = 0; f < cols.length; ++f)
+					cols[f] = joinOrder[t].keyToCol(product.getKey().get(f));
+				monomialCols[t][product.getValue()] = cols;
+			}
+			
+			monomialSteps[t] = new int[3*steps.get(t).size()];
+			int x = 0;
+			for(int[] step : steps.get(t))
+				for(int i : step)
+					monomialSteps[t][x++] = i;
+		}
+	}
+	
+	//Returns the index of item in indexes, giving it the next free index if it has none
+	private static int intern(Map<List<Integer>, Integer> indexes, List<Integer> item){
+		
+		Integer index = indexes.get(item);
+		if(index == null){
+			index = indexes.size();
+			indexes.put(item, index);
+		}
+		
+		return index;
 	}
 
+
 	private void calcKeysAfterForSelectedAggs(){
 
-		Set<Integer> setKeysAfter = new HashSet<Integer>();
+		BitSet setKeysAfter = new BitSet(numKeys);
+		BitSet selected     = new BitSet(numKeys*numKeys); //Bit A*numKeys+B is set if SUM(AB) was asked for, where A <= B
+		
+		for(int[] agg: keysToAggregateOn)
+			selected.set(agg[0]*numKeys + agg[1]);
 
 
 		for(int t = tables.length - 1; t >= 0; --t){
 
+			//Compute the keys exclusively appearing after the table in the join order
+			keysAfter[t] = setKeysAfter.stream().toArray();
+			
+			final int[] here = firstAppearingKeys[t];
+			
 			//Calculate the aggregates that would need to be updated in the event of 
 			//duplicate join key (one of our optimizations in second algorithm)
 			//These are all the aggregate pairs that always after the current table in the 
 			//join order i.e. we compute SUM(AB) where A and B only appear after table T in join order
 			
-			ArrayList<Integer> aggsLaterList = new ArrayList<Integer>();
+			int[] later = new int[keysToAggregateOn.length];
+			int numLater = 0;
 
 			for(int[] agg: keysToAggregateOn){
-				if(setKeysAfter.contains(agg[0]) && setKeysAfter.contains(agg[1]))
-					aggsLaterList.add(agg[0]*numKeys+agg[1]);
+				if(setKeysAfter.get(agg[0]) && setKeysAfter.get(agg[1]))
+					later[numLater++] = agg[0]*numKeys+agg[1];
 			}
 			
-			aggsLater[t] = new int[aggsLaterList.size()];
-			
-			
-			for(int a = 0; a < aggsLater[t].length; ++a)
-				aggsLater[t][a] = aggsLaterList.get(a);
-			
-			
-			keysAfter[t] = new int[setKeysAfter.size()];
-
-			Iterator<Integer> it = setKeysAfter.iterator();
+			aggsLater[t] = Arrays.copyOf(later, numLater);
 			
-			//Compute the keys exclusively appearing after the table in the join order
-			for(int k = 0; k < setKeysAfter.size(); ++k){
-				keysAfter[t][k] = it.next();
-			}
 			/*Arrange for computation of aggregates like SUM(XA)
 			 * Where X is a key in this table that does not appear earlier in the join order and 
 			 * and   A is a key that always appears later in the join order
 			 */
 			
+			int[] mixed 	 = new int[2*keysToAggregateOn.length];
+			int[] writeMixed = new int[keysToAggregateOn.length];
+			int numMixed = 0;
 
-			ArrayList<Integer> mixed 	  = new ArrayList<Integer>();
-			ArrayList<Integer> writeMixed = new ArrayList<Integer>();
-
-
-			for(int afterK: setKeysAfter){
-				for(int hereK: firstAppearingKeys[t]){
+			for(int afterK: keysAfter[t]){
+				for(int hereK: here){
 					int min = Math.min(afterK, hereK); int max = Math.max(afterK, hereK);
-					if(aggExists(min,max)){
-						writeMixed.add( min*numKeys + max);
-						mixed.add(afterK); 
-						mixed.add(hereK); 
-
+					if(selected.get(min*numKeys + max)){
+						writeMixed[numMixed] = min*numKeys + max;
+						mixed[2*numMixed]    = afterK; 
+						mixed[2*numMixed+1]  = hereK;
+						++numMixed;
 					}
 				}
 			}
 			
-			mixedAggs[t]	    = new int[mixed.size()];
-			writeMixedAggsIn[t] = new int[writeMixed.size()];
-			
-			for(int a = 0; a < mixedAggs[t].length; ++a)
-				mixedAggs[t][a] = mixed.get(a);
-			
-			for(int a = 0; a < writeMixedAggsIn[t].length; ++a)
-				writeMixedAggsIn[t][a] = writeMixed.get(a);
+			mixedAggs[t]	    = Arrays.copyOf(mixed, 2*numMixed);
+			writeMixedAggsIn[t] = Arrays.copyOf(writeMixed, numMixed);
 
 
 			//Compute aggregates SUM(XY) such that X and Y are two keys that appear for the first time
 			//in the join order at table t 
 			
-			ArrayList<Integer> sameAggs 	  = new ArrayList<Integer>();
-			ArrayList<Integer> sameCols 	  = new ArrayList<Integer>();
+			int[] sameAggs = new int[keysToAggregateOn.length];
+			int[] sameCols = new int[2*keysToAggregateOn.length];
+			int numSame = 0;
 
 			
-			for(int k1 : firstAppearingKeys[t])
-				for(int k2: firstAppearingKeys[t]){
+			for(int k1 : here)
+				for(int k2: here){
 					if(k2 < k1) continue; //If we do SUM(AB), we do not need SUM(BA)
-					if(!aggExists(k1, k2))
+					if(!selected.get(k1*numKeys + k2))
 						continue;
 					
-					sameAggs.add(k1*numKeys+k2);
-					sameCols.add(joinOrder[t].keyToCol(k1)); sameCols.add(joinOrder[t].keyToCol(k2));
-					
+					sameAggs[numSame]     = k1*numKeys+k2;
+					sameCols[2*numSame]   = joinOrder[t].keyToCol(k1);
+					sameCols[2*numSame+1] = joinOrder[t].keyToCol(k2);
+					++numSame;
 					
 				}
 			
-			sameTableAggs[t]	    = new int[sameAggs.size()];
-			sameTableAggCols[t]	    = new int[sameCols.size()];
-			
-			
-			for(int a = 0; a < sameTableAggs[t].length; ++a)
-				sameTableAggs[t][a] = sameAggs.get(a);
-			
-			for(int a = 0; a < sameCols.size(); ++a)
-				sameTableAggCols[t][a] = sameCols.get(a);
+			sameTableAggs[t]	    = Arrays.copyOf(sameAggs, numSame);
+			sameTableAggCols[t]	    = Arrays.copyOf(sameCols, 2*numSame);
 			
 			
 			//Add the keys that never appear earlier in the join order to the set of keys exclusively appearing after T-1
-			for(int key : firstAppearingKeys[t])
-				setKeysAfter.add(key);
+			for(int key : here)
+				setKeysAfter.set(key);
 			
 		}
 	
@@ -649,6 +749,27 @@ public class Join_Utility {
 		return keysToAggregateOn;
 	}
 	
+	public int[][] getMonomialCols(int table){
+		return monomialCols[table];
+	}
+	
+	public int[] getMonomialSteps(int table){
+		return monomialSteps[table];
+	}
+	
+	public int getNumPartialSums(int table){
+		return numPartialSums[table];
+	}
+	
+	public int[] getMonomialResults(){
+		return monomialResults;
+	}
+	
+	//Column of the group by attribute in the first table of the join order, -1 without group by
+	public int getGroupCol(){
+		return groupKey != -1 ? joinOrder[0].keyToCol(groupKey) : -1;
+	}
+	
 	
 	
 }
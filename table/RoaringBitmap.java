@@ -0,0 +1,320 @@
+package table;
+
+import java.util.Arrays;
+
+/**Compressed set of row numbers in the style of Roaring bitmaps.
+ *
+ * A row number is split into its high and low 16 bits. The rows sharing the same high bits go into one container, which
+ * stores their low bits either as a sorted array (ArrayContainer) while it holds at most ARRAY_LIMIT rows, or as a bitmap of
+ * 2^16 bits (BitmapContainer) once it holds more. Either way a container never takes more than 8KB, and sparse sets cost
+ * 2 bytes per row instead of a bit per row of the table.
+ *
+ * AND and OR work container by container, so they only touch the parts of the table where the sets have rows, and
+ * cardinality() is a sum of counts kept by the containers (a popcount for bitmaps)
+ */
+
+public class RoaringBitmap {
+
+	private static final int ARRAY_LIMIT = 4096; //Beyond this many rows a bitmap takes less space than an array
+
+	private char[]      keys       = new char[0]; //High 16 bits of the rows of each container, in increasing order
+	private Container[] containers = new Container[0];
+	private int         size;                     //Containers in use
+
+
+	//Adds the row. Adding rows in increasing order, as when scanning a table, appends to the last container
+	public void add(int row){
+
+		char high = (char) (row >>> 16);
+		int  idx  = size > 0 && keys[size - 1] == high ? size - 1 : Arrays.binarySearch(keys, 0, size, high);
+
+		if(idx < 0){
+			idx = -idx - 1;
+			insert(idx, high, new ArrayContainer());
+		}
+
+		containers[idx] = containers[idx].add((char) row);
+	}
+
+	public boolean contains(int row){
+		int idx = Arrays.binarySearch(keys, 0, size, (char) (row >>> 16));
+		return idx >= 0 && containers[idx].contains((char) row);
+	}
+
+	//Number of rows in the set
+	public int cardinality(){
+
+		int cardinality = 0;
+		for(int c = 0; c < size; ++c)
+			cardinality += containers[c].cardinality();
+
+		return cardinality;
+	}
+
+	public boolean isEmpty(){
+		return size == 0;
+	}
+
+	//The rows of both sets
+	public RoaringBitmap and(RoaringBitmap other){
+
+		RoaringBitmap result = new RoaringBitmap();
+		int i = 0, j = 0;
+
+		while(i < size && j < other.size){
+			if(keys[i] < other.keys[j]) ++i;
+			else if(keys[i] > other.keys[j]) ++j;
+			else{
+				Container both = containers[i].and(other.containers[j]);
+				if(both.cardinality() > 0)
+					result.insert(result.size, keys[i], both);
+				++i; ++j;
+			}
+		}
+
+		return result;
+	}
+
+	//The rows of either set
+	public RoaringBitmap or(RoaringBitmap other){
+
+		RoaringBitmap result = new RoaringBitmap();
+		int i = 0, j = 0;
+
+		while(i < size || j < other.size){
+			if(j == other.size || (i < size && keys[i] < other.keys[j]))
+				result.insert(result.size, keys[i], containers[i++].copy());
+			else if(i == size || keys[i] > other.keys[j])
+				result.insert(result.size, other.keys[j], other.containers[j++].copy());
+			else
+				result.insert(result.size, keys[i], containers[i++].or(other.containers[j++]));
+		}
+
+		return result;
+	}
+
+	//The rows in increasing order
+	public int[] toArray(){
+
+		int[] rows = new int[cardinality()];
+		int pos = 0;
+
+		for(int c = 0; c < size; ++c)
+			pos = containers[c].fill(rows, pos, keys[c] << 16);
+
+		return rows;
+	}
+
+	private void insert(int idx, char high, Container container){
+
+		if(size == keys.length){
+			keys       = Arrays.copyOf(keys, Math.max(4, 2*size));
+			containers = Arrays.copyOf(containers, keys.length);
+		}
+
+		System.arraycopy(keys, idx, keys, idx + 1, size - idx);
+		System.arraycopy(containers, idx, containers, idx + 1, size - idx);
+
+		keys[idx]       = high;
+		containers[idx] = container;
+		++size;
+	}
+
+
+	private static abstract class Container{
+
+		//Returns the container holding the low bits, which is a new one if this container had to change its kind
+		abstract Container add(char low);
+		abstract boolean   contains(char low);
+		abstract int       cardinality();
+		abstract Container and(Container other);
+		abstract Container or(Container other);
+		abstract Container copy();
+		abstract int       fill(int[] rows, int pos, int high); //Writes high | low for every low bits, returns the next position
+	}
+
+	private static class ArrayContainer extends Container{
+
+		char[] values;
+		int    cardinality;
+
+		ArrayContainer(){
+			this(new char[4], 0);
+		}
+
+		ArrayContainer(char[] values, int cardinality){
+			this.values      = values;
+			this.cardinality = cardinality;
+		}
+
+		Container add(char low){
+
+			int idx = cardinality > 0 && values[cardinality - 1] < low ? -cardinality - 1 : Arrays.binarySearch(values, 0, cardinality, low);
+			if(idx >= 0)
+				return this;
+
+			if(cardinality == ARRAY_LIMIT)
+				return toBitmap().add(low);
+
+			idx = -idx - 1;
+			if(cardinality == values.length)
+				values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, Math.max(4, 2*cardinality)));
+
+			System.arraycopy(values, idx, values, idx + 1, cardinality - idx);
+			values[idx] = low;
+			++cardinality;
+
+			return this;
+		}
+
+		boolean contains(char low){
+			return Arrays.binarySearch(values, 0, cardinality, low) >= 0;
+		}
+
+		int cardinality(){
+			return cardinality;
+		}
+
+		Container and(Container other){
+
+			char[] both = new char[cardinality];
+			int n = 0;
+
+			if(other instanceof ArrayContainer){
+				ArrayContainer array = (ArrayContainer) other;
+				int i = 0, j = 0;
+				while(i < cardinality && j < array.cardinality){
+					if(values[i] < array.values[j]) ++i;
+					else if(values[i] > array.values[j]) ++j;
+					else { both[n++] = values[i]; ++i; ++j; }
+				}
+			}
+			else
+				for(int i = 0; i < cardinality; ++i)
+					if(other.contains(values[i]))
+						both[n++] = values[i];
+
+			return new ArrayContainer(both, n);
+		}
+
+		Container or(Container other){
+
+			if(other instanceof BitmapContainer)
+				return other.or(this);
+
+			ArrayContainer array = (ArrayContainer) other;
+			char[] either = new char[cardinality + array.cardinality];
+			int i = 0, j = 0, n = 0;
+
+			while(i < cardinality || j < array.cardinality){
+				if(j == array.cardinality || (i < cardinality && values[i] < array.values[j])) either[n++] = values[i++];
+				else if(i == cardinality || values[i] > array.values[j])                      either[n++] = array.values[j++];
+				else { either[n++] = values[i++]; ++j; }
+			}
+
+			ArrayContainer merged = new ArrayContainer(either, n);
+			return n > ARRAY_LIMIT ? merged.toBitmap() : merged;
+		}
+
+		Container copy(){
+			return new ArrayContainer(Arrays.copyOf(values, Math.max(cardinality, 1)), cardinality);
+		}
+
+		int fill(int[] rows, int pos, int high){
+			for(int i = 0; i < cardinality; ++i)
+				rows[pos++] = high | values[i];
+			return pos;
+		}
+
+		BitmapContainer toBitmap(){
+			BitmapContainer bitmap = new BitmapContainer();
+			for(int i = 0; i < cardinality; ++i)
+				bitmap.add(values[i]);
+			return bitmap;
+		}
+	}
+
+	private static class BitmapContainer extends Container{
+
+		final long[] words = new long[1 << 10];
+		int          cardinality;
+
+		Container add(char low){
+
+			long bit = 1L << low;
+			if((words[low >>> 6] & bit) == 0){
+				words[low >>> 6] |= bit;
+				++cardinality;
+			}
+
+			return this;
+		}
+
+		boolean contains(char low){
+			return (words[low >>> 6] & (1L << low)) != 0;
+		}
+
+		int cardinality(){
+			return cardinality;
+		}
+
+		Container and(Container other){
+
+			if(other instanceof ArrayContainer)
+				return other.and(this);
+
+			BitmapContainer bitmap = (BitmapContainer) other, both = new BitmapContainer();
+			for(int w = 0; w < words.length; ++w){
+				both.words[w]     = words[w] & bitmap.words[w];
+				both.cardinality += Long.bitCount(both.words[w]);
+			}
+
+			return both.cardinality > ARRAY_LIMIT ? both : both.toArray();
+		}
+
+		Container or(Container other){
+
+			BitmapContainer either = (BitmapContainer) copy();
+
+			if(other instanceof ArrayContainer){
+				ArrayContainer array = (ArrayContainer) other;
+				for(int i = 0; i < array.cardinality; ++i)
+					either.add(array.values[i]);
+			}
+			else{
+				BitmapContainer bitmap = (BitmapContainer) other;
+				either.cardinality = 0;
+				for(int w = 0; w < words.length; ++w){
+					either.words[w]    |= bitmap.words[w];
+					either.cardinality += Long.bitCount(either.words[w]);
+				}
+			}
+
+			return either;
+		}
+
+		Container copy(){
+			BitmapContainer copy = new BitmapContainer();
+			System.arraycopy(words, 0, copy.words, 0, words.length);
+			copy.cardinality = cardinality;
+			return copy;
+		}
+
+		int fill(int[] rows, int pos, int high){
+			for(int w = 0; w < words.length; ++w)
+				for(long word = words[w]; word != 0; word &= word - 1)
+					rows[pos++] = high | (w << 6) | Long.numberOfTrailingZeros(word);
+			return pos;
+		}
+
+		ArrayContainer toArray(){
+			char[] values = new char[Math.max(cardinality, 1)];
+			int n = 0;
+			for(int w = 0; w < words.length; ++w)
+				for(long word = words[w]; word != 0; word &= word - 1)
+					values[n++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+			return new ArrayContainer(values, n);
+		}
+	}
+
+}
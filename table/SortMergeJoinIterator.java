@@ -34,6 +34,8 @@ public class SortMergeJoinIterator implements TableIterator {
 	private final int[] 	  firstAppearingKeys;
 	private final int[] 	  firstAppearingCols;
 	private final boolean[]   joinKeysAfter;
+	private final ZoneMap     zones; //Lets the merge jump over blocks of rows below the keys, null for small tables
+	private final JoinCounters counters;
 	
 	final static boolean DIRTY = true; 	final static boolean CLEAN = false;
 
@@ -63,6 +65,8 @@ public class SortMergeJoinIterator implements TableIterator {
 		this.firstAppearingCols = data.getFirstAppearingCols(ID);
 		this.joinKeysAfter      = data.getJoinKeysAfter(ID);
 		this.joinKeys           = data.getJoinKeys(ID);
+		this.counters           = data.getCounters(ID);
+		this.zones              = joinCols.length > 0 && relation.getSize() > ZoneMap.BLOCK_SIZE ? relation.getZoneMap() : null;
 		
 
 	}
@@ -86,14 +90,20 @@ public class SortMergeJoinIterator implements TableIterator {
 		}
 		
 		
-		if(lastStartRow == NULL) //Initially we start at the top of the table 
+		if(lastStartRow == NULL){ //Initially we start at the top of the table 
+			if(relation.getSize() == 0){ //Nothing to merge with
+				lastStartRow = EMPTY; nextRow = EMPTY;
+				return;
+			}
 			nextRow = 0;
+		}
 		else if(lastStartRow == EMPTY) //Since the tables are sorted, we know once we reach the end, we stay there
 			return;
 		else if(foundMatch){      //Did we find matching tuples before the last synchronization?
 			
 			if(!keysChanged){ //If we found matches last time with the same key, we just go back to the last start row
 				nextRow = lastStartRow; 
+				if(JoinCounters.ENABLED) counters.add(JoinCounters.START_ROW_HITS, 1);
 				return;
 			}
 			else{ //Found match and keys changed from last time
@@ -119,8 +129,21 @@ public class SortMergeJoinIterator implements TableIterator {
 		//Is nextRow smaller, equal to, or larger than the keys
 		int difference = compareNextRowWithKeys();
 		
+		if(difference < 0 && zones != null){ //The table is sorted on joinCols[0] first, so blocks below its key hold no match
+			int skipped = nextRow;
+			nextRow = zones.skipBelow(nextRow, joinCols[0], currKeys[0]);
+			if(JoinCounters.ENABLED) counters.add(JoinCounters.ZONE_SKIPPED, nextRow - skipped);
+			if(nextRow == relation.getSize()){
+				nextRow = EMPTY;
+				lastStartRow = EMPTY;
+				return;
+			}
+			difference = compareNextRowWithKeys();
+		}
+		
 		while(difference < 0){ //Increment nextRow while it is too small to match with current keys
 			++nextRow;
+			if(JoinCounters.ENABLED) counters.add(JoinCounters.SCAN_STEPS, 1);
 			if(nextRow == relation.getSize()){
 				nextRow = EMPTY;
 				lastStartRow = EMPTY;
@@ -6,25 +6,48 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Table {
 
 	protected final HashMap<String, Integer> attMap; 
-	protected final double[][] data;
+	protected       double[][] data;
 	private   final String[]   schema;
 	public          int[]      sortedBy; //The columns the table is sorted on
 	public    final String     name;
 	private   static int       numTables = 0;
 	private          int[]	   keys; //A user may assign a numeric schema to the table as well, where each attribute is mapped
     									 // to its corresponding ID in the database 
+	private          int[]     keyCols; //keyCols[key] is the column of key, or -1 if the key is not in the schema
+	private   final Table      base; //The table that owns the rows. A view shares the rows of its base table
+	private   final ConcurrentHashMap<List<Integer>, double[][]> sortedLayouts; //Sorted layouts of the rows, cached per list of sort columns
+	private volatile TableStatistics statistics; //Collected at load time, or the first time the planner asks for them
+	private   final boolean[]  categorical; //Columns holding category codes rather than numbers, see setCategorical()
+	private   final ConcurrentHashMap<List<Integer>, ZoneMap> zoneMaps; //Zone maps of the sorted layouts, see getZoneMap()
+	private volatile ZoneMap   zoneMap;  //Zone map of the rows in the order the table holds them
+	private          List<Integer> layout; //Sort columns of the cached layout a view reads, null if it reads the rows of its base
+	private   final ConcurrentHashMap<Integer, BitmapIndex> bitmapIndexes; //Bitmap indexes by column, see getBitmapIndex()
+	private          boolean   weighted; //Each row stands for as many equal rows as its weight, see deduplicate()
+	private volatile Changes   changes;  //Rows changed since an earlier version of the table, see withChanges()
 	
 	public Table(double[][] table, String[] schema, String name) {
 		this.data  = table; 
 		attMap  = new HashMap<String, Integer>(schema.length * 2);
 		this.schema = schema;
 		this.name   = name != null? name : ("Table " + numTables++);
+		this.base   = this;
+		this.sortedLayouts = new ConcurrentHashMap<List<Integer>, double[][]>();
+		this.categorical   = new boolean[schema.length];
+		this.zoneMaps      = new ConcurrentHashMap<List<Integer>, ZoneMap>();
+		this.bitmapIndexes = new ConcurrentHashMap<Integer, BitmapIndex>();
 		
 		//Create mapping from attribute name to column number 
 		for(int att = 0; att < schema.length; ++att)
@@ -32,6 +55,21 @@ public class Table {
 		
 	}
 	
+	//Creates a view of the base table, see view()
+	private Table(Table base){
+		base.layOutRows();
+		this.base   = base;
+		this.data   = base.data;
+		this.attMap = base.attMap;
+		this.schema = base.schema;
+		this.name   = base.name;
+		this.sortedLayouts = base.sortedLayouts;
+		this.categorical   = base.categorical;
+		this.zoneMaps      = base.zoneMaps;
+		this.bitmapIndexes = base.bitmapIndexes;
+		this.weighted      = base.weighted;
+	}
+	
 	public Table(double[][] table, String[] schema) {
 		this(table, schema, "Table " + numTables++);
 	}
@@ -42,7 +80,8 @@ public class Table {
 /**	Parses a table located with path file. Each row in the table is represented by a new line in the file
  *	where each attribute is separated by separator. The schema is given by the String array schema
  *
- *	The function returns a table object representing the relation.
+ *	The function returns a table object representing the relation. The statistics of the table (see TableStatistics)
+ *	are collected while the file is parsed
  */
 	public static Table getTable(String _file, String seperator, String[] schema, String name){
 		
@@ -50,6 +89,7 @@ public class Table {
 		double[] row;
 		ArrayList<double[]> rows = new ArrayList<double[]>();
 		String[] strRow;
+		TableStatistics.Collector stats = new TableStatistics.Collector(cols);
 		
 		BufferedReader reader = null;
 
@@ -66,11 +106,15 @@ public class Table {
 		        	row[c] = Long.parseLong(strRow[c]);
 		       
 		        rows.add(row);	       
+		        stats.add(row);
 		    }
 		    
-		   
+		    double[][] data = rows.toArray(new double[rows.size()][]);
 		    
-		return new Table(rows.toArray(new double[rows.size()][]), schema, name);
+		    Table table = new Table(data, schema, name);
+		    table.statistics = stats.finish(data);
+		    
+		return table;
 
 		} catch (IOException e) {
 		    e.printStackTrace();
@@ -85,29 +129,666 @@ public class Table {
 	    return null;
 	}
 	
+	/**Same as above, but equal rows are collapsed into one weighted row once the file is parsed, see deduplicate()*/
+	public static Table getTable(String _file, String seperator, String[] schema, String name, boolean deduplicate){
+		Table table = getTable(_file, seperator, schema, name);
+		return table != null && deduplicate ? table.deduplicate() : table;
+	}
+	
+	/**Returns a view of the table. The view shares the rows of this table but has its own keys and sort order.
+	 * Sorting a view never reorders the rows of the table it was created from, it switches the view to a sorted layout
+	 * that is cached on the base table. Hence many queries can read the same loaded table at once without copying it
+	 */
+	public Table view(){
+		return new Table(base);
+	}
+	
+	public boolean isView(){
+		return base != this;
+	}
+	
 	public void sort(String[] strSortOn){
 		int[] sortOn = new int[strSortOn.length];
 		for(int at = 0; at < strSortOn.length; ++at)
 			sortOn[at] = attMap.get(strSortOn[at]);
 		
-		Arrays.sort(data, new RowComparator(sortOn));
-		sortedBy = sortOn;
+		sort(sortOn);
 		
 	}
 	
 	public void sort(int[] sortOn){
-		Arrays.sort(data, new RowComparator(sortOn));
-		sortedBy = sortOn;
+		sort(sortOn, sortOn);
 	}
 	
 	/**Sometimes we want to sort on say columns c1,c2,....cn but only consider the table sorted on c1,c2,...,cm where m <n
 	 * In other words, this functions allows us to "pretend" the table was sorted on a smaller precision than it actually was
+	 * 
+	 * A base table is sorted in place. A view instead takes the cached sorted layout of its base table
 	 *     */
 	public void sort(int[] sortOn, int[] colsToRemember){
-		Arrays.sort(data, new RowComparator(sortOn));
+		if(isView()){
+			data   = base.getSortedLayout(sortOn);
+			layout = toList(sortOn);
+		}
+		else{
+			if(data == null || sortedLayouts.containsValue(data)) //The rows are a cached layout, see withChanges()
+				data = getSortedLayout(sortOn);
+			else
+				Arrays.sort(data, new RowComparator(sortOn));
+			zoneMap = null;
+			bitmapIndexes.clear(); //They number the rows by their old positions
+		}
+		
 		sortedBy = colsToRemember;
 	}
 	
+	/**Returns the rows of the table ordered on the columns sortOn. The layout is computed the first time it is asked for
+	 * and cached afterwards. Only the references to the rows are laid out again, the rows themselves are shared
+	 * 
+	 * The returned layout must not be modified since other views may be reading it
+	 */
+	public double[][] getSortedLayout(int[] sortOn){
+		
+		if(isView())
+			return base.getSortedLayout(sortOn);
+		
+		List<Integer> id = toList(sortOn);
+		double[][] layout = sortedLayouts.get(id);
+		
+		if(layout == null){
+			layout = computeSortedLayout(sortOn);
+			
+			double[][] cached = sortedLayouts.putIfAbsent(id, layout); //Another query may have computed it meanwhile
+			if(cached != null)
+				layout = cached;
+		}
+		
+		return layout;
+	}
+	
+	/**Lays out the rows ordered on sortOn. A table whose rows are made of pieces that are already sorted can merge the
+	 * pieces instead of sorting all rows again, see AppendableTable*/
+	protected double[][] computeSortedLayout(int[] sortOn){
+		
+		Changes pending = changes;
+		if(pending != null){ //Bring the layout of the earlier version up to date, see withChanges()
+			double[][] earlier = pending.origin.sortedLayouts.get(toList(sortOn));
+			if(earlier != null)
+				return applyChanges(earlier, pending, new RowComparator(sortOn));
+		}
+		
+		layOutRows();
+		double[][] layout = Arrays.copyOf(data, data.length);
+		Arrays.sort(layout, new RowComparator(sortOn));
+		return layout;
+	}
+	
+	//A changed table lays its rows out the first time they are needed, see withChanges()
+	private void layOutRows(){
+		
+		if(data != null)
+			return;
+		
+		Changes pending = changes;
+		if(pending != null) //Otherwise the table was compacted meanwhile, which lays the rows out first
+			data = getSortedLayout(pending.sortOn);
+	}
+	
+	//Frees the memory used by the cached sorted layouts
+	public void clearSortedLayouts(){
+		sortedLayouts.clear();
+		zoneMaps.clear();
+	}
+	
+	/**Returns the zone map of the rows as this table currently orders them. It is built the first time it is needed and
+	 * cached: on the base table for a view reading a sorted layout, so that all views reading the layout share it*/
+	public ZoneMap getZoneMap(){
+		
+		if(layout != null)
+			return zoneMaps.computeIfAbsent(layout, id -> new ZoneMap(data, schema.length));
+		
+		if(isView())
+			return base.getZoneMap();
+		
+		ZoneMap zones = zoneMap;
+		
+		if(zones == null){ //Two threads may both build it, which is harmless
+			layOutRows();
+			zones   = new ZoneMap(data, schema.length);
+			zoneMap = zones;
+		}
+		
+		return zones;
+	}
+	
+	static List<Integer> toList(int[] cols){
+		List<Integer> list = new ArrayList<Integer>(cols.length);
+		for(int col : cols)
+			list.add(col);
+		return list;
+	}
+	
+	/**Returns a new table holding the rows of this table, minus the rows in deleted, plus the rows in inserted.
+	 * Each row in deleted removes one equal row of the table; deleting a row the table does not have is an error.
+	 * This table is left unchanged.
+	 * 
+	 * The new table does not lay its rows out yet. It remembers the rows changed since origin, the last version of the
+	 * table whose layouts were all up to date: the deleted rows are found by binary search in a layout of origin, and no
+	 * other row is compared, hashed or sorted. So applying a change costs O(d log n) for d changed rows, plus copying the
+	 * rows changed since origin, which are at most about sqrt(n) (see below).
+	 * 
+	 * The rows are laid out the first time a query needs them (see layOutRows() and computeSortedLayout()): each sorted
+	 * layout is derived from the one cached on origin, placing the changed rows by binary search and copying the rows
+	 * between them as blocks. That is an O(n) copy for each layout a version of the table is read in, though one without
+	 * any comparisons. Once the rows changed since origin number more than sqrt(n), this table lays out all the layouts of
+	 * origin and becomes the new origin, so that origin and the changes do not pile up.
+	 * 
+	 * A weighted table keeps its rows distinct (see deduplicate()). The changed rows then hold the columns of the schema
+	 * only, and each of them changes the weight of the row with its values by one: an inserted row adds one to it, or
+	 * adds the row with weight 1, and a deleted row takes one off, removing the row once its weight drops to 0.
+	 * 
+	 * The statistics are carried over as long as the changes since origin are small compared to the table, since the
+	 * planner only needs estimates
+	 */
+	public Table withChanges(double[][] inserted, double[][] deleted){
+		
+		if(isView())
+			return base.withChanges(inserted, deleted);
+		
+		for(double[] row : inserted)
+			if(row.length != schema.length)
+				throw new IllegalArgumentException("Inserted row has " + row.length + " columns, " + name + " has " + schema.length);
+		
+		Changes pending = changes;
+		
+		long numChanges = pending != null ? pending.size() + inserted.length + deleted.length : 0;
+		
+		if(pending != null && numChanges*numChanges > pending.origin.getSize()){ //See above
+			layOutRows();
+			for(List<Integer> layout : pending.origin.sortedLayouts.keySet())
+				getSortedLayout(layout.stream().mapToInt(Integer::intValue).toArray());
+			changes = pending = null; //This table is the new origin, it has all the layouts of the old one now
+		}
+		
+		Table          origin  = pending != null ? pending.origin : this;
+		List<double[]> added   = new ArrayList<double[]>();
+		Set<double[]>  removed = Collections.newSetFromMap(new IdentityHashMap<double[], Boolean>()); //Rows of origin
+		
+		if(pending != null){
+			added.addAll(Arrays.asList(pending.inserted));
+			removed.addAll(pending.deleted);
+		}
+		
+		//The layout of origin the deleted rows are searched in. The new table holds its rows in the same order
+		int[] sortOn = origin.sortedLayouts.keySet().stream().findFirst().orElse(toList(new int[]{ 0 }))
+							 .stream().mapToInt(Integer::intValue).toArray();
+		
+		double[][]    layout     = origin.getSortedLayout(sortOn);
+		RowComparator comparator = new RowComparator(sortOn);
+		
+		if(weighted){
+			for(double[] row : deleted)
+				changeWeight(row, -1, added, removed, layout, comparator);
+			for(double[] row : inserted)
+				changeWeight(row, 1, added, removed, layout, comparator);
+		}
+		else{
+			for(double[] row : deleted){
+				if(removeEqual(added, row)) //The row was inserted since origin
+					continue;
+				
+				int found = row.length == schema.length ? findEqual(layout, row, comparator, removed) : -1;
+				if(found == -1)
+					throw new IllegalArgumentException("Cannot delete rows that are not in " + name);
+				
+				removed.add(layout[found]);
+			}
+			
+			for(double[] row : inserted)
+				added.add(row.clone());
+		}
+		
+		Changes since = new Changes(origin, added.toArray(new double[added.size()][]), removed, sortOn);
+		
+		Table changed = new Table(null, schema, name); //The rows are laid out when first needed, see layOutRows()
+		System.arraycopy(categorical, 0, changed.categorical, 0, categorical.length);
+		changed.weighted = weighted;
+		changed.changes = since;
+		
+		if(statistics != null && 10*since.size() < origin.getSize())
+			changed.statistics = statistics;
+		
+		return changed;
+	}
+	
+	/**Returns a table holding only the rows that satisfy the conditions on attributes of this table. Conditions on
+	 * attributes the table does not have are ignored, and if none are left the table itself is returned. The rows kept are
+	 * shared with this table, only the array holding them is compacted. This table is left unchanged
+	 * 
+	 * Tables larger than a block consult their zone map: blocks where some condition fails for every value in the range
+	 * of its column are skipped, and blocks where all conditions hold for the whole range are kept without testing the rows
+	 */
+	public Table select(Condition... conditions){
+
+		if(isView())
+			return base.select(conditions);
+
+		layOutRows();
+
+		int numApplying = 0;
+		int[] cols = new int[conditions.length];
+
+		for(int c = 0; c < conditions.length; ++c){
+			Integer col = attMap.get(conditions[c].getAttribute());
+			cols[c] = col != null ? col : -1;
+			if(col != null)
+				++numApplying;
+		}
+
+		if(numApplying == 0)
+			return this;
+
+		double[][] kept = new double[data.length][];
+		int numKept = 0;
+
+		RoaringBitmap indexed = indexedRows(conditions, cols);
+
+		if(indexed != null){ //Only the rows the bitmap indexes let through are tested for the other conditions
+			for(int r : indexed.toArray()){
+				double[] row = data[r];
+				boolean pass = true;
+				for(int c = 0; c < conditions.length && pass; ++c)
+					if(cols[c] != -1 && !conditions[c].test(row[cols[c]]))
+						pass = false;
+
+				if(pass)
+					kept[numKept++] = row;
+			}
+
+			return selected(Arrays.copyOf(kept, numKept));
+		}
+
+		ZoneMap zones = data.length > ZoneMap.BLOCK_SIZE ? getZoneMap() : null;
+		int numBlocks = zones != null ? zones.numBlocks() : 1;
+
+		for(int block = 0; block < numBlocks; ++block){
+
+			int start = zones != null ? ZoneMap.startOf(block) : 0;
+			int end   = zones != null ? zones.endOf(block) : data.length;
+
+			boolean skip = false, keepAll = zones != null;
+			for(int c = 0; c < conditions.length && zones != null; ++c)
+				if(cols[c] != -1){
+					double min = zones.getMin(block, cols[c]), max = zones.getMax(block, cols[c]);
+					skip    |= !conditions[c].mayMatch(min, max);
+					keepAll &= conditions[c].matchesAll(min, max);
+				}
+
+			if(skip)
+				continue;
+
+			if(keepAll){
+				System.arraycopy(data, start, kept, numKept, end - start);
+				numKept += end - start;
+				continue;
+			}
+
+			for(int r = start; r < end; ++r){
+				double[] row = data[r];
+				boolean pass = true;
+				for(int c = 0; c < conditions.length && pass; ++c)
+					if(cols[c] != -1 && !conditions[c].test(row[cols[c]]))
+						pass = false;
+
+				if(pass)
+					kept[numKept++] = row;
+			}
+		}
+
+		return selected(Arrays.copyOf(kept, numKept));
+	}
+
+	private Table selected(double[][] rows){
+		Table selected = new Table(rows, schema, name);
+		System.arraycopy(categorical, 0, selected.categorical, 0, categorical.length);
+		selected.weighted = weighted;
+		return selected;
+	}
+
+	/**Returns a weighted table holding each distinct row of this table's projection on the attributes once (all attributes
+	 * if none are given), with the number of rows it stands for as its weight. The algorithms aggregate a weighted row
+	 * as if it appeared weight times, so joins over tables with many repeated rows do proportionally less work.
+	 * Deduplicating a weighted table adds up the weights of the rows that collapse. This table is left unchanged
+	 *
+	 * The weight is kept after the columns of the schema in each row (see weight()), so it moves with the row when the
+	 * table is sorted
+	 */
+	public Table deduplicate(String... attributes){
+
+		if(isView())
+			return base.deduplicate(attributes);
+
+		layOutRows();
+
+		String[] projected = attributes.length > 0 ? attributes.clone() : schema;
+		int[]    cols      = new int[projected.length];
+
+		for(int c = 0; c < cols.length; ++c){
+			Integer col = attMap.get(projected[c]);
+			if(col == null)
+				throw new IllegalArgumentException(name + " has no attribute " + projected[c]);
+			cols[c] = col;
+		}
+
+		Map<RowKey, double[]> distinct = new LinkedHashMap<RowKey, double[]>(); //Keeps the first appearance order
+
+		for(double[] row : data){
+
+			double[] values = new double[cols.length];
+			for(int c = 0; c < cols.length; ++c)
+				values[c] = Values.normalize(row[cols[c]]);
+
+			RowKey key = new RowKey(values);
+			double[] weightedRow = distinct.get(key);
+
+			if(weightedRow == null){
+				weightedRow = Arrays.copyOf(values, cols.length + 1);
+				distinct.put(key, weightedRow);
+			}
+
+			weightedRow[cols.length] += weight(row);
+		}
+
+		Table deduplicated = new Table(distinct.values().toArray(new double[distinct.size()][]), projected, name);
+		for(int c = 0; c < cols.length; ++c)
+			deduplicated.categorical[c] = categorical[cols[c]];
+		deduplicated.weighted = true;
+
+		return deduplicated;
+	}
+
+	public boolean isWeighted(){
+		return weighted;
+	}
+
+	//The number of equal rows the row stands for, 1 unless the table is weighted
+	public double weight(double[] row){
+		return weighted ? row[schema.length] : 1;
+	}
+
+	//The total weight of the rows startRow,...,endRow, which is their number unless the table is weighted
+	public double weight(int startRow, int endRow){
+
+		if(!weighted)
+			return 1 + endRow - startRow;
+
+		double total = 0;
+		for(int r = startRow; r <= endRow; ++r)
+			total += data[r][schema.length];
+
+		return total;
+	}
+
+	/**Returns the number of rows satisfying the conditions on attributes of this table. A row of a weighted table counts
+	 * as the number of rows it stands for, its weight. If all conditions are on columns with a bitmap index the count of an
+	 * unweighted table is the cardinality of the AND of their bitmaps and no row is read*/
+	public int count(Condition... conditions){
+
+		if(isView())
+			return base.count(conditions);
+
+		layOutRows();
+
+		int[] cols = new int[conditions.length];
+		for(int c = 0; c < conditions.length; ++c){
+			Integer col = attMap.get(conditions[c].getAttribute());
+			cols[c] = col != null ? col : -1;
+		}
+
+		RoaringBitmap indexed = indexedRows(conditions, cols);
+
+		for(int col : cols)
+			if(col != -1){ //Some condition has no index
+				Table selected = select(conditions);
+				return (int) selected.weight(0, selected.getSize() - 1);
+			}
+
+		if(indexed == null)
+			return (int) weight(0, data.length - 1);
+
+		if(!weighted)
+			return indexed.cardinality();
+
+		double total = 0;
+		for(int r : indexed.toArray())
+			total += data[r][schema.length];
+
+		return (int) total;
+	}
+
+	/**The AND of the rows the bitmap indexes give for the conditions on indexed columns, or null if no condition is on an
+	 * indexed column. The columns of those conditions are set to -1 in cols since the conditions need no more testing*/
+	private RoaringBitmap indexedRows(Condition[] conditions, int[] cols){
+
+		RoaringBitmap rows = null;
+
+		for(int c = 0; c < conditions.length; ++c){
+			BitmapIndex index = cols[c] != -1 ? bitmapIndexes.get(cols[c]) : null;
+			if(index == null)
+				continue;
+
+			RoaringBitmap matching = index.matching(conditions[c]);
+			rows    = rows == null ? matching : rows.and(matching);
+			cols[c] = -1;
+		}
+
+		return rows;
+	}
+
+	/**Returns the bitmap index of the attribute, building it the first time it is asked for. Once built, select() and
+	 * count() answer conditions on the attribute from the index. Throws an IllegalArgumentException if the attribute has
+	 * more than BitmapIndex.MAX_VALUES distinct values. Views share the indexes of their base table*/
+	public BitmapIndex getBitmapIndex(String attribute){
+
+		if(isView())
+			return base.getBitmapIndex(attribute);
+
+		layOutRows();
+
+		Integer col = attMap.get(attribute);
+		if(col == null)
+			throw new IllegalArgumentException(name + " has no attribute " + attribute);
+
+		return bitmapIndexes.computeIfAbsent(col, c -> new BitmapIndex(data, c, attribute));
+	}
+
+	//Returns layout, sorted by comparator, without the deleted rows and with the inserted rows of changes. Only the
+	//changed rows are searched for, the rows between them are copied as blocks
+	private static double[][] applyChanges(double[][] layout, Changes changes, RowComparator comparator){
+		
+		int[] gone = new int[changes.deleted.size()];
+		int   g    = 0;
+		
+		for(double[] row : changes.deleted){
+			int pos = bound(layout, row, comparator, false);
+			while(layout[pos] != row) //The deleted row is one of the rows equal to it on the sort columns
+				++pos;
+			gone[g++] = pos;
+		}
+		Arrays.sort(gone);
+		
+		double[][] added = changes.inserted.clone();
+		Arrays.sort(added, comparator);
+		
+		double[][] changed = new double[layout.length - gone.length + added.length][];
+		int from = 0, m = 0, d = 0;
+		
+		for(int a = 0; a <= added.length; ++a){
+			int upTo = a < added.length ? bound(layout, added[a], comparator, true) : layout.length; //After the equal rows
+			
+			for(; d < gone.length && gone[d] < upTo; from = gone[d++] + 1){
+				System.arraycopy(layout, from, changed, m, gone[d] - from);
+				m += gone[d] - from;
+			}
+			
+			System.arraycopy(layout, from, changed, m, upTo - from);
+			m   += upTo - from;
+			from = upTo;
+			
+			if(a < added.length)
+				changed[m++] = added[a];
+		}
+		
+		return changed;
+	}
+	
+	//Returns the first position in layout, sorted by comparator, whose row is not less than row, or if upper is set the
+	//first position whose row is greater than row
+	private static int bound(double[][] layout, double[] row, RowComparator comparator, boolean upper){
+		
+		int low = 0, high = layout.length;
+		
+		while(low < high){
+			int mid = (low + high) >>> 1;
+			int cmp = comparator.compare(layout[mid], row);
+			
+			if(cmp < 0 || (upper && cmp == 0))
+				low  = mid + 1;
+			else
+				high = mid;
+		}
+		
+		return low;
+	}
+	
+	//Returns the position in layout, sorted by comparator, of a row that is not in excluded and whose first row.length
+	//columns equal row, or -1. The rows of a weighted table hold their weight after those columns
+	private static int findEqual(double[][] layout, double[] row, RowComparator comparator, Set<double[]> excluded){
+		
+		for(int pos = bound(layout, row, comparator, false); pos < layout.length && comparator.compare(layout[pos], row) == 0; ++pos)
+			if(startsWith(layout[pos], row) && !excluded.contains(layout[pos]))
+				return pos;
+		
+		return -1;
+	}
+	
+	private static boolean startsWith(double[] row, double[] values){
+		
+		if(row.length < values.length)
+			return false;
+		
+		for(int c = 0; c < values.length; ++c)
+			if(Double.doubleToLongBits(row[c]) != Double.doubleToLongBits(values[c])) //Like Arrays.equals()
+				return false;
+		
+		return true;
+	}
+	
+	/**Adds delta to the weight of the row of this weighted table holding the values of row, see withChanges(). The row
+	 * is replaced by a new one rather than changed, since earlier versions of the table share it. added and removed are
+	 * the rows inserted into and deleted from origin so far, layout is a layout of origin sorted by comparator*/
+	private void changeWeight(double[] row, int delta, List<double[]> added, Set<double[]> removed, double[][] layout,
+							  RowComparator comparator){
+		
+		if(row.length != schema.length)
+			throw new IllegalArgumentException("Changed row has " + row.length + " columns, " + name + " has " + schema.length);
+		
+		double[] values = new double[schema.length];
+		for(int c = 0; c < values.length; ++c)
+			values[c] = Values.normalize(row[c]);
+		
+		double[] current = null;
+		
+		for(int r = 0; r < added.size() && current == null; ++r) //The row may have been inserted since origin
+			if(startsWith(added.get(r), values))
+				current = added.remove(r);
+		
+		if(current == null){
+			int found = findEqual(layout, values, comparator, removed);
+			if(found != -1){
+				current = layout[found];
+				removed.add(current);
+			}
+		}
+		
+		double weight = (current != null ? current[schema.length] : 0) + delta;
+		if(weight < 0)
+			throw new IllegalArgumentException("Cannot delete rows that are not in " + name);
+		
+		if(weight > 0){
+			double[] weightedRow = Arrays.copyOf(values, schema.length + 1);
+			weightedRow[schema.length] = weight;
+			added.add(weightedRow);
+		}
+	}
+	
+	//Removes one row equal to row from rows, returns false if there is none
+	private static boolean removeEqual(List<double[]> rows, double[] row){
+		
+		for(int r = 0; r < rows.size(); ++r)
+			if(Arrays.equals(rows.get(r), row)){
+				rows.remove(r);
+				return true;
+			}
+		
+		return false;
+	}
+	
+	//Merges two arrays of rows sorted by comparator
+	static double[][] merge(double[][] left, double[][] right, RowComparator comparator){
+		
+		double[][] merged = new double[left.length + right.length][];
+		int l = 0, r = 0, m = 0;
+		
+		while(l < left.length && r < right.length)
+			merged[m++] = comparator.compare(left[l], right[r]) <= 0 ? left[l++] : right[r++];
+		
+		while(l < left.length)  merged[m++] = left[l++];
+		while(r < right.length) merged[m++] = right[r++];
+		
+		return merged;
+	}
+	
+	//The rows inserted into and deleted from origin, an earlier version of a table, see withChanges()
+	private static class Changes{
+		
+		final Table         origin;
+		final double[][]    inserted;
+		final Set<double[]> deleted; //Rows of origin, compared by identity
+		final int[]         sortOn;  //The changed table holds its rows in this layout
+		
+		Changes(Table origin, double[][] inserted, Set<double[]> deleted, int[] sortOn){
+			this.origin   = origin;
+			this.inserted = inserted;
+			this.deleted  = deleted;
+			this.sortOn   = sortOn;
+		}
+		
+		int size(){
+			return inserted.length + deleted.size();
+		}
+	}
+	
+	//Compares rows by value so that equal rows can be found with a hash map
+	private static class RowKey{
+		
+		final double[] row;
+		
+		RowKey(double[] row){
+			this.row = row;
+		}
+		
+		@Override
+		public int hashCode(){
+			return Arrays.hashCode(row);
+		}
+		
+		@Override
+		public boolean equals(Object other){
+			return other instanceof RowKey && Arrays.equals(row, ((RowKey) other).row);
+		}
+	}
+	
 	/**Finds the index of the first row with a matching key. If no such index exists, returns -1*/
 	public int binarySearch(double[] key){
 		
@@ -139,14 +820,23 @@ public class Table {
 		
 	}
 	
-	/**Finds the index of the first row with a matching key after row "after". If no such index exists, returns -1*/
+	/**Finds the index of the first row with a matching key after row "after". If no such index exists, returns -1
+	 * Tables larger than a block jump over the blocks whose zone map rules the key out*/
 	public int findAfter(double[] key, int after, int[] joinCols){
 		
 		int index = after + 1;
 		boolean pass; double[] row;
 		
+		ZoneMap zones  = data.length > ZoneMap.BLOCK_SIZE ? getZoneMap() : null;
+		int   blockEnd = index; //The zone map was last checked for the block ending at blockEnd
+		
 		while(true){
 			
+			if(zones != null && index == blockEnd){
+				index    = zones.skipToCandidate(index, key, joinCols);
+				blockEnd = zones.endOf(ZoneMap.blockOf(index));
+			}
+			
 			if(index == data.length) return -1;
 			
 			pass = true;
@@ -167,6 +857,7 @@ public class Table {
 	
 	
 	public void print(){
+		layOutRows();
 		for(double[] row : data){
 			for(double val : row)
 				System.out.print(val + "  ");
@@ -175,6 +866,7 @@ public class Table {
 	}
 	
 	public void intPrint(){
+		layOutRows();
 		for(double[] row : data){
 			for(double val : row)
 				System.out.print((int) val + "  ");
@@ -182,6 +874,44 @@ public class Table {
 		}
 	}
 	
+	/**Returns the statistics of the table, computing them the first time they are needed unless they were collected
+	 * when the table was loaded. Views share the statistics of their base table*/
+	public TableStatistics getStatistics(){
+		
+		if(isView())
+			return base.getStatistics();
+		
+		TableStatistics stats = statistics;
+		
+		if(stats == null){ //Two threads may both compute them, which is harmless
+			stats = TableStatistics.of(this);
+			statistics = stats;
+		}
+		
+		return stats;
+	}
+	
+	//For tables whose statistics are kept up to date elsewhere, see AppendableTable
+	void setStatistics(TableStatistics statistics){
+		this.statistics = statistics;
+	}
+	
+	/**Declares the attributes as categorical: their values are codes of categories, like the type of a house, rather than
+	 * numbers. Algorithms that support it (see algo2.JoinAlgCategorical) then treat such an attribute C as the indicators
+	 * [C = c] of its categories. The declaration is shared by the views of the table*/
+	public void setCategorical(String... attributes){
+		for(String attribute : attributes){
+			Integer col = attMap.get(attribute);
+			if(col == null)
+				throw new IllegalArgumentException(name + " has no attribute " + attribute);
+			categorical[col] = true;
+		}
+	}
+	
+	public boolean isCategorical(int col){
+		return categorical[col];
+	}
+	
 	public String[] getSchema(){
 		return schema;
 	}
@@ -196,6 +926,7 @@ public class Table {
 	
 	
 	public int getSize(){
+		layOutRows();
 		return data.length;
 	}
 	
@@ -205,6 +936,17 @@ public class Table {
 	
 	public void setKeys(int[] _keys){
 		this.keys = _keys;
+		
+		int maxKey = -1;
+		for(int key : _keys)
+			maxKey = Math.max(maxKey, key);
+		
+		keyCols = new int[maxKey + 1];
+		Arrays.fill(keyCols, -1);
+		
+		for(int c = 0; c < _keys.length; ++c)
+			if(keyCols[_keys[c]] == -1) //Like a linear search, report the first column holding the key
+				keyCols[_keys[c]] = c;
 	}
 	
 	public int numCols(){
@@ -212,19 +954,18 @@ public class Table {
 	}
 	
 	public double[] getRow(int row){
+		layOutRows();
 		return data[row];
 	}
 	
 	//Returns the column the key corresponds to if it exists
 	public int keyToCol(int key){
-		for(int c = 0; c < keys.length; ++c)
-			if(keys[c] == key)
-				return c;
-		return -1;
+		return key >= 0 && key < keyCols.length ? keyCols[key] : -1;
 	}
 	
 	public double valueAt(int col, int row){
 		//System.out.println(col + "   " + row + "    " + data[0].length);
+		layOutRows();
 		return data[row][col];
 	}
 	
@@ -0,0 +1,257 @@
+package table;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**Statistics about the contents of a table. The query planner uses them to estimate how many rows a join produces
+ * and hence what a join order costs.
+ *
+ * For each column we keep
+ *
+ * 	- the smallest and largest value
+ * 	- an estimate of the number of distinct values (see HyperLogLog)
+ * 	- an equi-depth histogram: HISTOGRAM_BUCKETS+1 boundaries such that about the same number of rows fall between
+ * 	  any two consecutive boundaries. It is built from a uniform sample of SAMPLE_SIZE rows, so it is exact for smaller tables
+ * 	- the heavy hitters: values making up more than 1/(HEAVY_HITTERS+1) of the rows, along with their exact number of rows.
+ * 	  Candidates are found with the Misra-Gries algorithm while the rows stream in and counted exactly in one more pass
+ *
+ * The statistics are gathered by a Collector which sees each row once, so Table.getTable() collects them while it parses
+ * the file. The statistics of a table are computed once and shared by all of its views, see Table.getStatistics()
+ */
+
+public class TableStatistics {
+
+	public static final int HISTOGRAM_BUCKETS = 32;
+	public static final int HEAVY_HITTERS     = 16;
+	private static final int SAMPLE_SIZE      = 4096;
+
+	private final int        rowCount;
+	private final double[]   min;
+	private final double[]   max;
+	private final int[]      distinctCounts;
+	private final double[][] histograms;
+	private final double[][] heavyHitters;      //heavyHitters[col] ordered from most to least frequent
+	private final int[][]    heavyHitterCounts; //Rows with each heavy hitter
+
+
+	private TableStatistics(int rowCount, int numCols){
+		this.rowCount          = rowCount;
+		this.min               = new double[numCols];
+		this.max               = new double[numCols];
+		this.distinctCounts    = new int[numCols];
+		this.histograms        = new double[numCols][];
+		this.heavyHitters      = new double[numCols][];
+		this.heavyHitterCounts = new int[numCols][];
+	}
+
+	/**Collects the statistics of the rows shown to add(), one row at a time*/
+	public static class Collector{
+
+		private final int           numCols;
+		private final double[]      min;
+		private final double[]      max;
+		private final HyperLogLog[] distinct;
+		private final double[][]    candidates;      //Misra-Gries counters, HEAVY_HITTERS per column
+		private final int[][]       candidateCounts;
+		private final int[]         numCandidates;
+		private final double[][]    sample = new double[SAMPLE_SIZE][]; //Reservoir of rows
+		private final Random        random = new Random(0); //Fixed seed so the statistics of a file are always the same
+		private int                 rowCount;
+
+		public Collector(int numCols){
+			this.numCols         = numCols;
+			this.min             = new double[numCols];
+			this.max             = new double[numCols];
+			this.distinct        = new HyperLogLog[numCols];
+			this.candidates      = new double[numCols][HEAVY_HITTERS];
+			this.candidateCounts = new int[numCols][HEAVY_HITTERS];
+			this.numCandidates   = new int[numCols];
+
+			Arrays.fill(min, Double.POSITIVE_INFINITY);
+			Arrays.fill(max, Double.NEGATIVE_INFINITY);
+			for(int col = 0; col < numCols; ++col)
+				distinct[col] = new HyperLogLog();
+		}
+
+		public void add(double[] row){
+
+			for(int col = 0; col < numCols; ++col){
+				double value = row[col];
+
+				if(value < min[col]) min[col] = value;
+				if(value > max[col]) max[col] = value;
+				distinct[col].add(value);
+				countCandidate(col, value);
+			}
+
+			//Reservoir sampling keeps each row seen so far in the sample with the same probability
+			if(rowCount < SAMPLE_SIZE)
+				sample[rowCount] = row;
+			else{
+				int slot = random.nextInt(rowCount + 1);
+				if(slot < SAMPLE_SIZE)
+					sample[slot] = row;
+			}
+
+			++rowCount;
+		}
+
+		/**Misra-Gries: count the value if it has a counter or a counter is free, otherwise decrement all counters.
+		 * Any value in more than 1/(HEAVY_HITTERS+1) of the rows ends with a counter*/
+		private void countCandidate(int col, double value){
+
+			double[] values = candidates[col];
+			int[]    counts = candidateCounts[col];
+			int      size   = numCandidates[col];
+
+			for(int c = 0; c < size; ++c)
+				if(values[c] == value){
+					++counts[c];
+					return;
+				}
+
+			if(size < HEAVY_HITTERS){
+				values[size] = value; counts[size] = 1;
+				numCandidates[col]++;
+				return;
+			}
+
+			int kept = 0;
+			for(int c = 0; c < size; ++c)
+				if(--counts[c] > 0){
+					values[kept] = values[c]; counts[kept++] = counts[c];
+				}
+
+			numCandidates[col] = kept;
+		}
+
+		/**Computes the statistics. rows must be the rows that were added, in any order; they are read once more
+		 * to count the heavy hitter candidates exactly*/
+		public TableStatistics finish(double[][] rows){
+
+			TableStatistics stats = new TableStatistics(rowCount, numCols);
+			int sampled = Math.min(rowCount, SAMPLE_SIZE);
+
+			int[][] exactCounts = new int[numCols][];
+			for(int col = 0; col < numCols; ++col)
+				exactCounts[col] = new int[numCandidates[col]];
+
+			for(double[] row : rows)
+				for(int col = 0; col < numCols; ++col){
+					double[] values = candidates[col];
+					for(int c = 0; c < numCandidates[col]; ++c)
+						if(values[c] == row[col]){
+							exactCounts[col][c]++;
+							break;
+						}
+				}
+
+			double[] column = new double[sampled];
+
+			for(int col = 0; col < numCols; ++col){
+
+				stats.min[col]            = rowCount > 0 ? min[col] : Double.NaN;
+				stats.max[col]            = rowCount > 0 ? max[col] : Double.NaN;
+				stats.distinctCounts[col] = (int) Math.min(rowCount, distinct[col].estimate());
+
+				for(int r = 0; r < sampled; ++r)
+					column[r] = sample[r][col];
+				Arrays.sort(column);
+
+				stats.histograms[col] = new double[sampled > 0 ? HISTOGRAM_BUCKETS + 1 : 0];
+				for(int b = 0; b < stats.histograms[col].length; ++b)
+					stats.histograms[col][b] = column[(int) ((long) b*(sampled - 1)/HISTOGRAM_BUCKETS)];
+
+				stats.setHeavyHitters(col, candidates[col], exactCounts[col]);
+			}
+
+			return stats;
+		}
+	}
+
+	//Keeps the candidates that really are heavy hitters, most frequent first
+	private void setHeavyHitters(int col, double[] values, int[] counts){
+
+		int threshold = rowCount/(HEAVY_HITTERS + 1);
+		Integer[] order = new Integer[counts.length];
+		int size = 0;
+
+		for(int c = 0; c < counts.length; ++c)
+			if(counts[c] > threshold)
+				order[size++] = c;
+
+		Arrays.sort(order, 0, size, (c1, c2) -> counts[c2] - counts[c1]);
+
+		heavyHitters[col]      = new double[size];
+		heavyHitterCounts[col] = new int[size];
+
+		for(int h = 0; h < size; ++h){
+			heavyHitters[col][h]      = values[order[h]];
+			heavyHitterCounts[col][h] = counts[order[h]];
+		}
+	}
+
+	//Computes the statistics of a table already in memory
+	public static TableStatistics of(Table table){
+
+		Collector collector = new Collector(table.numCols());
+		double[][] rows = new double[table.getSize()][];
+
+		for(int r = 0; r < rows.length; ++r){
+			rows[r] = table.getRow(r);
+			collector.add(rows[r]);
+		}
+
+		return collector.finish(rows);
+	}
+
+
+	public int getRowCount(){
+		return rowCount;
+	}
+
+	public double getMin(int col){
+		return min[col];
+	}
+
+	public double getMax(int col){
+		return max[col];
+	}
+
+	//An estimate, exact up to a few percent
+	public int getDistinctCount(int col){
+		return distinctCounts[col];
+	}
+
+	public double[] getHistogram(int col){
+		return histograms[col];
+	}
+
+	public double[] getHeavyHitters(int col){
+		return heavyHitters[col];
+	}
+
+	public int[] getHeavyHitterCounts(int col){
+		return heavyHitterCounts[col];
+	}
+
+	/**Estimates how many rows have the value in column col. Heavy hitters are counted exactly, the other values are
+	 * assumed to share the remaining rows evenly*/
+	public double estimateRowsEqualTo(int col, double value){
+
+		if(rowCount == 0 || value < min[col] || value > max[col])
+			return 0;
+
+		int heavyRows = 0;
+		for(int h = 0; h < heavyHitters[col].length; ++h){
+			if(heavyHitters[col][h] == value)
+				return heavyHitterCounts[col][h];
+			heavyRows += heavyHitterCounts[col][h];
+		}
+
+		int otherValues = distinctCounts[col] - heavyHitters[col].length;
+
+		return otherValues > 0 ? (double) (rowCount - heavyRows)/otherValues : 0;
+	}
+
+}
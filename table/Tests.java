@@ -16,6 +16,7 @@ public class Tests {
 		
 		/**Change the file path to run tests on a different machine. For example, if you want to run the algorithms for housing-5
 		 * and the file's path is /Users/Downloads/Housing/housing-5 you set FILE_PATH = /Users/Downloads/Housing/
+		 * Datasets of any size in this layout can be generated with bench.DataGenerator
 		 */
 		
 		final String FILE_PATH = "/Users/alex/Downloads/Housing/";
@@ -30,6 +31,8 @@ public class Tests {
 		
 		//JoinAlg2.run(tables);      //UNCOMMENT TO RUN AggDB algorithm two for the specific datset above and print aggregates
 		
+		//System.out.println(JoinAlg2.explainAnalyze(tables, null)); //UNCOMMENT TO SEE THE PLAN OF ALGORITHM TWO, run with -Djoin.counters=true to count
+		
 		
 		/** If you want to run the algorithm for specific aggregates only rather than finding all aggregates, use the following code and change
 		 * it to suit testing needs. We support using as many or as little aggregates as needed
@@ -44,6 +47,7 @@ public class Tests {
         /**We created a test to benchmark the three algorithms by running it on datasets 1 through 20.
          * For each data set, we run the test 5 times and report the average time of the last four runs.
          * Uncomment below code to run tests. 
+         * bench.BenchmarkRunner runs the same benchmarks from the command line and times loading, sorting and joining apart
          */
         
         				/*BENCHMARK CALCULATION OF ALL AGGREGATES*/
@@ -0,0 +1,20 @@
+package table;
+
+/**Helpers for telling the values of rows apart by value, as hash maps, tree maps and hashes do*/
+
+public class Values {
+
+	/**Returns value with -0.0 turned into 0.0. The two are equal as doubles, but not as Doubles or by their bits, so values
+	 * are normalized before they are used as keys or hashed*/
+	public static double normalize(double value){
+		return value == 0 ? 0 : value;
+	}
+
+	//Finalizer of the SplitMix64 generator, spreads similar values over all 64 bits
+	public static long mix(long x){
+		x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+		x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+		return x ^ (x >>> 31);
+	}
+
+}
@@ -0,0 +1,108 @@
+package table;
+
+import java.util.Arrays;
+
+/**Zone map of a layout of the rows of a table: the smallest and largest value of each column within each block of
+ * BLOCK_SIZE consecutive rows. A block whose range of a column does not contain a value has no row with that value,
+ * so scans looking for the value can jump over the whole block without reading its rows.
+ *
+ * Once a table is sorted the rows with close values of the sort columns sit in the same blocks, so the ranges are narrow
+ * and most blocks can be skipped. On an unsorted column the ranges are wide and the zone map rarely helps, but checking
+ * it costs one comparison per block. See Table.getZoneMap()
+ */
+
+public class ZoneMap {
+
+	public static final int BLOCK_SIZE = 1024;
+
+	private final int        numRows;
+	private final double[][] min; //min[block][col]
+	private final double[][] max;
+
+
+	public ZoneMap(double[][] rows, int numCols){
+
+		this.numRows = rows.length;
+
+		int numBlocks = (rows.length + BLOCK_SIZE - 1)/BLOCK_SIZE;
+		this.min = new double[numBlocks][numCols];
+		this.max = new double[numBlocks][numCols];
+
+		for(int block = 0; block < numBlocks; ++block){
+
+			Arrays.fill(min[block], Double.POSITIVE_INFINITY);
+			Arrays.fill(max[block], Double.NEGATIVE_INFINITY);
+
+			int end = Math.min(rows.length, (block + 1)*BLOCK_SIZE);
+			for(int r = block*BLOCK_SIZE; r < end; ++r)
+				for(int col = 0; col < numCols; ++col){
+					double value = rows[r][col];
+					if(value < min[block][col]) min[block][col] = value;
+					if(value > max[block][col]) max[block][col] = value;
+				}
+		}
+	}
+
+	public int numBlocks(){
+		return min.length;
+	}
+
+	public static int blockOf(int row){
+		return row/BLOCK_SIZE;
+	}
+
+	//First row of the block
+	public static int startOf(int block){
+		return block*BLOCK_SIZE;
+	}
+
+	//One past the last row of the block
+	public int endOf(int block){
+		return Math.min(numRows, (block + 1)*BLOCK_SIZE);
+	}
+
+	public double getMin(int block, int col){
+		return min[block][col];
+	}
+
+	public double getMax(int block, int col){
+		return max[block][col];
+	}
+
+	//Could a row of the block have the value in column col?
+	public boolean mayContain(int block, int col, double value){
+		return value >= min[block][col] && value <= max[block][col];
+	}
+
+	/**Returns the first row from row on that is not in a block whose values of col are all below value. For a layout sorted
+	 * on col first, every row skipped is smaller than any row with value in col*/
+	public int skipBelow(int row, int col, double value){
+
+		int block = blockOf(row);
+		while(block < min.length && max[block][col] < value)
+			row = startOf(++block);
+
+		return Math.min(row, numRows);
+	}
+
+	/**Returns the first row from row on that is in a block which may have key[col] in every column col of cols, or the
+	 * number of rows if there is none*/
+	public int skipToCandidate(int row, double[] key, int[] cols){
+
+		for(int block = blockOf(row); block < min.length; row = startOf(++block)){
+
+			boolean candidate = true;
+			for(int col : cols)
+				if(!mayContain(block, col, key[col])){
+					candidate = false;
+					break;
+				}
+
+			if(candidate)
+				return row;
+		}
+
+		return numRows;
+	}
+
+}